@@ -0,0 +1,58 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Main.networkAdaptor, time to turn a gnp concept graph into bridges and LAN segments
+ */
+class AdaptorBenchmark extends Benchmark {
+    private UndirectedGraph<Integer, DefaultEdge> g;
+    private Configurations configurations;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("adaptor", new String[]{"exact", "greedy"});
+        params.put("nodes", new String[]{"100", "1000", "10000"});
+        params.put("density", new String[]{"0.01", "0.1"});
+        return params;
+    }
+
+    @Override
+    boolean skip(Map<String, String> params) {
+        final int nodes = Integer.parseInt(params.get("nodes"));
+        final boolean dense = params.get("density").equals("0.1");
+        // exact adaptor is exponential, dense large graphs don't fit the default heap
+        return (params.get("adaptor").equals("exact") && (nodes >= 10000 || nodes >= 1000 && dense))
+                || nodes >= 10000 && dense;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        configurations = new Configurations();
+        configurations.topology = "gnp";
+        configurations.adaptor = params.get("adaptor");
+        g = Main.createConceptGraph(configurations, Integer.parseInt(params.get("nodes")),
+                Double.parseDouble(params.get("density")));
+    }
+
+    @Override
+    long invoke() {
+        final HashMap<Integer, Bridge> bridges = new HashMap<>();
+        final HashSet<LanSegment> lanSegments = new HashSet<>();
+        Main.networkAdaptor(g, bridges, lanSegments, new Simulation(configurations, g.vertexSet().size()));
+        blackHole += lanSegments.size();
+        return 1;
+    }
+}
@@ -0,0 +1,72 @@
+package net.spanningtree;
+
+import java.util.Collections;
+import java.util.Map;
+
+/***
+ * A single benchmark run by BenchmarkRunner, once for every combination of its
+ * parameters. Mirrors the JMH life cycle: setup per parameter combination, an
+ * optional untimed setup before every invocation and timed invocations.
+ */
+abstract class Benchmark {
+    enum Mode {
+        // operations per second
+        THROUGHPUT("thrpt", "ops/s"),
+        // milliseconds per operation
+        AVERAGE_TIME("avgt", "ms/op");
+
+        final String name;
+        final String unit;
+
+        Mode(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+    }
+
+    // results are folded in here so the JIT can't drop the measured work
+    static volatile long blackHole;
+
+    /***
+     * @return benchmark name used by --filter and in results
+     */
+    String name() {
+        return getClass().getSimpleName();
+    }
+
+    abstract Mode mode();
+
+    /***
+     * @return values of every parameter, in the order they should vary
+     */
+    Map<String, String[]> params() {
+        return Collections.emptyMap();
+    }
+
+    /***
+     * @param params one parameter combination
+     * @return true if combination should not run, e.g. too slow to be useful
+     */
+    boolean skip(Map<String, String> params) {
+        return false;
+    }
+
+    /***
+     * Prepares state for a parameter combination, untimed
+     * @param params one parameter combination
+     */
+    void setup(Map<String, String> params) throws Exception {
+    }
+
+    /***
+     * Prepares state for the next invocation, untimed
+     */
+    void setupInvocation() throws Exception {
+    }
+
+    /***
+     * Timed part
+     * @return number of operations done
+     */
+    abstract long invoke() throws Exception;
+}
@@ -0,0 +1,205 @@
+package net.spanningtree;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/***
+ * Runs all benchmarks and writes results in the JSON layout of JMH so runs can be
+ * compared over time with the usual JMH tools. Every parameter combination gets
+ * warm up iterations and then measured iterations of a fixed duration, the score
+ * is the mean of the iterations and the error the half width of its 99.9%
+ * confidence interval. Standard output of the simulation is muted while measuring.
+ * usage: java net.spanningtree.BenchmarkRunner [--filter regex] [--json file]
+ *        [--warmup n] [--iterations n] [--time ms]
+ */
+class BenchmarkRunner {
+    private static final Benchmark[] BENCHMARKS = {
+            new BridgeFrameBenchmark.Create(),
+            new BridgeFrameBenchmark.Forward(),
+            new LanSegmentBenchmark(),
+            new BridgeTickBenchmark(),
+            new TopologyBenchmark(),
+            new AdaptorBenchmark(),
+            new ConvergenceBenchmark(),
+            new VerifierBenchmark(),
+            new ShardBenchmark(),
+            new ReplayBenchmark(),
+            new CompactBenchmark()
+    };
+    // two sided 99.9% Student t quantiles for 1 to 10 degrees of freedom
+    private static final double[] T_999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = Pattern.compile(".*");
+        String json = "bench-results.json";
+        int warmup = 3;
+        int iterations = 5;
+        long time = 1000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].contains("--filter"))
+                filter = Pattern.compile(args[++i]);
+            else if (args[i].contains("--json"))
+                json = args[++i];
+            else if (args[i].contains("--warmup"))
+                warmup = Integer.parseInt(args[++i]);
+            else if (args[i].contains("--iterations"))
+                iterations = Integer.parseInt(args[++i]);
+            else if (args[i].contains("--time"))
+                time = Long.parseLong(args[++i]);
+        }
+
+        final PrintStream out = System.out;
+        final PrintStream muted = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        final List<String> results = new ArrayList<>();
+        out.printf("%-30s %-48s %5s %14s %12s %s%n", "benchmark", "params", "mode", "score", "error", "unit");
+        for (Benchmark benchmark : BENCHMARKS) {
+            if (!filter.matcher(benchmark.name()).find())
+                continue;
+            for (Map<String, String> params : combinations(benchmark.params())) {
+                if (benchmark.skip(params))
+                    continue;
+                final double[] scores;
+                System.setOut(muted);
+                try {
+                    benchmark.setup(params);
+                    for (int i = 0; i < warmup; i++) {
+                        iteration(benchmark, time);
+                    }
+                    scores = new double[iterations];
+                    for (int i = 0; i < iterations; i++) {
+                        scores[i] = iteration(benchmark, time);
+                    }
+                } finally {
+                    System.setOut(out);
+                }
+                final double score = mean(scores);
+                final double error = error(scores);
+                out.printf("%-30s %-48s %5s %14.3f %12.3f %s%n", benchmark.name(), params,
+                        benchmark.mode().name, score, error, benchmark.mode().unit);
+                results.add(toJson(benchmark, params, warmup, iterations, time, scores, score, error));
+            }
+        }
+
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(Paths.get(json), StandardCharsets.UTF_8))) {
+            writer.write("[\n" + String.join(",\n", results) + "\n]\n");
+        }
+        out.println("results written to " + json);
+    }
+
+    /***
+     * Invokes benchmark until the iteration time is used up, setup time excluded
+     * @return score of the iteration in unit of benchmark mode
+     */
+    private static double iteration(Benchmark benchmark, long time) throws Exception {
+        final long budget = time * 1000000L;
+        long elapsed = 0;
+        long operations = 0;
+        while (elapsed < budget) {
+            benchmark.setupInvocation();
+            final long started = System.nanoTime();
+            operations += benchmark.invoke();
+            elapsed += System.nanoTime() - started;
+        }
+        return benchmark.mode() == Benchmark.Mode.THROUGHPUT ?
+                operations / (elapsed / 1e9) : elapsed / 1e6 / operations;
+    }
+
+    private static List<Map<String, String>> combinations(Map<String, String[]> params) {
+        List<Map<String, String>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (Map.Entry<String, String[]> param : params.entrySet()) {
+            final List<Map<String, String>> next = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                for (String value : param.getValue()) {
+                    final Map<String, String> extended = new LinkedHashMap<>(combination);
+                    extended.put(param.getKey(), value);
+                    next.add(extended);
+                }
+            }
+            combinations = next;
+        }
+        return combinations;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double error(double[] values) {
+        if (values.length < 2)
+            return Double.NaN;
+        final double mean = mean(values);
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        final int degrees = values.length - 1;
+        // normal approximation is close enough past the table
+        final double t = degrees <= T_999.length ? T_999[degrees - 1] : degrees <= 30 ? 3.85 : 3.29;
+        return t * Math.sqrt(squares / degrees) / Math.sqrt(values.length);
+    }
+
+    private static String toJson(Benchmark benchmark, Map<String, String> params, int warmup, int iterations,
+                                 long time, double[] scores, double score, double error) {
+        final StringBuilder s = new StringBuilder();
+        s.append("  {\n");
+        s.append("    \"jmhVersion\" : \"none\",\n");
+        s.append("    \"benchmark\" : \"net.spanningtree.").append(benchmark.name()).append("\",\n");
+        s.append("    \"mode\" : \"").append(benchmark.mode().name).append("\",\n");
+        s.append("    \"threads\" : 1,\n");
+        s.append("    \"forks\" : 1,\n");
+        s.append("    \"jvm\" : \"").append(escape(System.getProperty("java.home"))).append("\",\n");
+        s.append("    \"vmVersion\" : \"").append(escape(System.getProperty("java.vm.version"))).append("\",\n");
+        s.append("    \"warmupIterations\" : ").append(warmup).append(",\n");
+        s.append("    \"warmupTime\" : \"").append(time).append(" ms\",\n");
+        s.append("    \"measurementIterations\" : ").append(iterations).append(",\n");
+        s.append("    \"measurementTime\" : \"").append(time).append(" ms\",\n");
+        if (!params.isEmpty()) {
+            s.append("    \"params\" : {\n");
+            final List<String> entries = new ArrayList<>();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                entries.add("      \"" + escape(param.getKey()) + "\" : \"" + escape(param.getValue()) + "\"");
+            }
+            s.append(String.join(",\n", entries)).append("\n    },\n");
+        }
+        s.append("    \"primaryMetric\" : {\n");
+        s.append("      \"score\" : ").append(number(score)).append(",\n");
+        s.append("      \"scoreError\" : ").append(number(error)).append(",\n");
+        s.append("      \"scoreConfidence\" : [").append(number(score - error)).append(", ")
+                .append(number(score + error)).append("],\n");
+        s.append("      \"scoreUnit\" : \"").append(benchmark.mode().unit).append("\",\n");
+        s.append("      \"rawData\" : [[");
+        for (int i = 0; i < scores.length; i++) {
+            s.append(i == 0 ? "" : ", ").append(number(scores[i]));
+        }
+        s.append("]]\n    }\n  }");
+        return s.toString();
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,61 @@
+package net.spanningtree;
+
+/***
+ * Frame allocation, a new advertisement and a frame forwarded one hop further.
+ * Frames are kept in a ring like in an inbox so escape analysis can't remove them.
+ */
+class BridgeFrameBenchmark {
+    private static final int BATCH = 4096;
+    private static final BridgeFrame[] kept = new BridgeFrame[BATCH];
+
+    static class Create extends Benchmark {
+        private final Sink sender = new Sink(0, new Simulation(new Configurations(), 1));
+
+        @Override
+        String name() {
+            return "BridgeFrameBenchmark.create";
+        }
+
+        @Override
+        Mode mode() {
+            return Mode.THROUGHPUT;
+        }
+
+        @Override
+        long invoke() {
+            long sum = 0;
+            for (int i = 0; i < BATCH; i++) {
+                kept[i] = new BridgeFrame(sender, i, Bridge.States.DP_ELECTION, i);
+                sum += kept[i].getTieBreaker();
+            }
+            blackHole += sum;
+            return BATCH;
+        }
+    }
+
+    static class Forward extends Benchmark {
+        private final Sink sender = new Sink(0, new Simulation(new Configurations(), 1));
+        private final BridgeFrame frame = new BridgeFrame(sender, 0, Bridge.States.RP_ELECTION);
+
+        @Override
+        String name() {
+            return "BridgeFrameBenchmark.forward";
+        }
+
+        @Override
+        Mode mode() {
+            return Mode.THROUGHPUT;
+        }
+
+        @Override
+        long invoke() {
+            long sum = 0;
+            for (int i = 0; i < BATCH; i++) {
+                kept[i] = frame.forward(sender);
+                sum += kept[i].getCost();
+            }
+            blackHole += sum;
+            return BATCH;
+        }
+    }
+}
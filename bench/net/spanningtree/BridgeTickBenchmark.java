@@ -0,0 +1,119 @@
+package net.spanningtree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Bridge.tick in each listening state, one operation is one received frame. The
+ * bridge is wired to sinks and driven through its phases by a convergence detector
+ * held busy, so it stays in the measured state however many frames it gets.
+ * ROOT_CHANGE receives an ever lower root id, adopts it and advertises it again on
+ * all ports, the others receive frames that are handled without a state change.
+ */
+class BridgeTickBenchmark extends Benchmark {
+    private static final int BATCH = 256;
+
+    private Bridge bridge;
+    private Sink[] sinks;
+    private Convergence convergence;
+    private String state;
+    private BridgeFrame frame;
+    private int rootId;
+    private int next = 0;
+
+    @Override
+    Mode mode() {
+        return Mode.THROUGHPUT;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("state", new String[]{"ROOT_LISTEN", "ROOT_CHANGE", "RP_ELECTION", "DP_LISTEN"});
+        params.put("fanOut", new String[]{"2", "16", "128"});
+        return params;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        state = params.get("state");
+        final int fanOut = Integer.parseInt(params.get("fanOut"));
+        final Simulation simulation = new Simulation(new Configurations(), 1);
+        convergence = simulation.convergence;
+        rootId = Integer.MAX_VALUE / 2;
+        bridge = new StpBridge(rootId, simulation);
+        sinks = new Sink[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            sinks[i] = new Sink(i, simulation);
+            Element.connect(bridge, sinks[i]);
+        }
+
+        // hold the phase, it would advance as soon as this single bridge is done
+        convergence.busy();
+        bridge.tick();
+        switch (state) {
+            case "ROOT_LISTEN":
+                frame = new BridgeFrame(sinks[0], Integer.MAX_VALUE, Bridge.States.ROOT_ADVERTISE);
+                break;
+            case "ROOT_CHANGE":
+                break;
+            case "RP_ELECTION":
+                toRpElection();
+                frame = new BridgeFrame(sinks[0], 0, Bridge.States.RP_ELECTION);
+                break;
+            case "DP_LISTEN":
+                toRpElection();
+                bridge.enqueue(0, new BridgeFrame(sinks[0], 0, Bridge.States.RP_ELECTION));
+                bridge.tick();
+                nextPhase();
+                // root port, then DP advertisement
+                bridge.tick();
+                bridge.tick();
+                if (bridge.getPortStatus(0) != Bridge.PortStatus.RP)
+                    throw new IllegalStateException("bridge did not reach DP_LISTEN");
+                frame = new BridgeFrame(sinks[0], 0, Bridge.States.DP_ELECTION, 0);
+                break;
+            default:
+                throw new IllegalArgumentException(state);
+        }
+    }
+
+    /***
+     * Adopts root 0 through port 0 and moves into RP_ELECTION
+     */
+    private void toRpElection() {
+        bridge.enqueue(0, new BridgeFrame(sinks[0], 0, Bridge.States.ROOT_ADVERTISE));
+        bridge.tick();
+        bridge.tick();
+        nextPhase();
+        bridge.tick();
+    }
+
+    /***
+     * Lets the held phase complete and holds the next one
+     */
+    private void nextPhase() {
+        convergence.consumed();
+        convergence.busy();
+    }
+
+    @Override
+    long invoke() {
+        final int ports = sinks.length;
+        for (int i = 0; i < BATCH; i++) {
+            if (state.equals("ROOT_CHANGE")) {
+                bridge.enqueue(next, new BridgeFrame(sinks[next], --rootId, Bridge.States.ROOT_ADVERTISE));
+                // adopt, then advertise
+                bridge.tick();
+                bridge.tick();
+            } else {
+                // DP frames on the root port are ignored, skip it
+                bridge.enqueue(state.equals("DP_LISTEN") && ports > 1 ? 1 + next % (ports - 1) : next, frame);
+                bridge.tick();
+            }
+            if (++next == ports)
+                next = 0;
+        }
+        return BATCH;
+    }
+}
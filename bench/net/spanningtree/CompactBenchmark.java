@@ -0,0 +1,58 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Compact engine on the networks of ConvergenceBenchmark, compare with its lockstep
+ * stp scores. Arrays are set up untimed before every run from a saved snapshot.
+ */
+class CompactBenchmark extends Benchmark {
+    private NetworkSnapshot snapshot;
+    private CompactNetwork network;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("nodes", new String[]{"50", "100", "200"});
+        return params;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        final Configurations configurations = new Configurations();
+        configurations.topology = "gnp";
+        configurations.adaptor = "greedy";
+        final UndirectedGraph<Integer, DefaultEdge> g =
+                Main.createConceptGraph(configurations, Integer.parseInt(params.get("nodes")), 0.1);
+        final HashMap<Integer, Bridge> bridges = new HashMap<>();
+        final HashSet<LanSegment> lanSegments = new HashSet<>();
+        Main.networkAdaptor(g, bridges, lanSegments, new Simulation(configurations, g.vertexSet().size()));
+        final File file = File.createTempFile("compact-benchmark", ".snapshot");
+        file.deleteOnExit();
+        NetworkSnapshot.save(file.getPath(), bridges.values(), lanSegments);
+        snapshot = NetworkSnapshot.load(file.getPath());
+    }
+
+    @Override
+    void setupInvocation() {
+        network = new CompactNetwork(snapshot);
+    }
+
+    @Override
+    long invoke() {
+        network.run();
+        return 1;
+    }
+}
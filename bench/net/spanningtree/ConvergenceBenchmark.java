@@ -0,0 +1,63 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Full simulation until all bridges stop, network is rebuilt untimed before every
+ * run because elements can't be restarted
+ */
+class ConvergenceBenchmark extends Benchmark {
+    private UndirectedGraph<Integer, DefaultEdge> g;
+    private Configurations configurations;
+    private Engine engine;
+    private HashMap<Integer, Bridge> bridges;
+    private HashSet<LanSegment> lanSegments;
+    private Convergence convergence;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("engine", new String[]{"event", "lockstep"});
+        params.put("protocol", new String[]{"stp", "rstp"});
+        params.put("nodes", new String[]{"50", "100", "200"});
+        params.put("budget", new String[]{"1", "0"});
+        return params;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        configurations = new Configurations();
+        configurations.topology = "gnp";
+        configurations.adaptor = "greedy";
+        configurations.protocol = params.get("protocol");
+        configurations.budget = Integer.parseInt(params.get("budget"));
+        g = Main.createConceptGraph(configurations, Integer.parseInt(params.get("nodes")), 0.1);
+        engine = Engine.create(params.get("engine"), configurations.threads);
+    }
+
+    @Override
+    void setupInvocation() {
+        bridges = new HashMap<>();
+        lanSegments = new HashSet<>();
+        final Simulation simulation = new Simulation(configurations, g.vertexSet().size());
+        convergence = simulation.convergence;
+        Main.networkAdaptor(g, bridges, lanSegments, simulation);
+    }
+
+    @Override
+    long invoke() {
+        engine.run(bridges.values(), lanSegments, convergence);
+        return 1;
+    }
+}
@@ -0,0 +1,52 @@
+package net.spanningtree;
+
+import java.util.Collections;
+import java.util.Map;
+
+/***
+ * LanSegment broadcast, frames/sec of a single segment for increasing number of
+ * attached bridges
+ */
+class LanSegmentBenchmark extends Benchmark {
+    private static final int BATCH = 1024;
+
+    private LanSegment lanSegment;
+    private Sink[] sinks;
+    private BridgeFrame frame;
+    private int next = 0;
+
+    @Override
+    Mode mode() {
+        return Mode.THROUGHPUT;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        return Collections.singletonMap("fanOut", new String[]{"2", "10", "100", "1000"});
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        final int fanOut = Integer.parseInt(params.get("fanOut"));
+        final Simulation simulation = new Simulation(new Configurations(), fanOut);
+        lanSegment = new LanSegment(0, simulation);
+        sinks = new Sink[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            sinks[i] = new Sink(i, simulation);
+            Element.connect(sinks[i], lanSegment);
+        }
+        frame = new BridgeFrame(sinks[0], 0, Bridge.States.ROOT_ADVERTISE);
+    }
+
+    @Override
+    long invoke() {
+        for (int i = 0; i < BATCH; i++) {
+            // frame arrives from a different bridge each time
+            lanSegment.enqueue(next, frame);
+            lanSegment.tick();
+            if (++next == sinks.length)
+                next = 0;
+        }
+        return BATCH;
+    }
+}
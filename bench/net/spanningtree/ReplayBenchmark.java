@@ -0,0 +1,67 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Replay of a pool run recorded once in setup, compare with the wall time of the
+ * recorded run. Network is rebuilt untimed before every replay because elements
+ * can't be restarted.
+ */
+class ReplayBenchmark extends Benchmark {
+    private UndirectedGraph<Integer, DefaultEdge> g;
+    private Configurations configurations;
+    private Engine engine;
+    private HashMap<Integer, Bridge> bridges;
+    private HashSet<LanSegment> lanSegments;
+    private Convergence convergence;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("protocol", new String[]{"stp", "rstp"});
+        return params;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        configurations = new Configurations();
+        configurations.topology = "gnp";
+        configurations.adaptor = "greedy";
+        configurations.protocol = params.get("protocol");
+        g = Main.createConceptGraph(configurations, 200, 0.05);
+        final File file = File.createTempFile("replay-benchmark", ".rec");
+        file.deleteOnExit();
+        setupInvocation();
+        final DeliveryRecorder recorder = new DeliveryRecorder(file.getPath(), bridges.values(), lanSegments.size());
+        Engine.create("pool", configurations.threads).run(bridges.values(), lanSegments, convergence);
+        recorder.close(bridges.values());
+        engine = new ReplayEngine(file.getPath());
+    }
+
+    @Override
+    void setupInvocation() {
+        bridges = new HashMap<>();
+        lanSegments = new HashSet<>();
+        final Simulation simulation = new Simulation(configurations, g.vertexSet().size());
+        convergence = simulation.convergence;
+        Main.networkAdaptor(g, bridges, lanSegments, simulation);
+    }
+
+    @Override
+    long invoke() {
+        engine.run(bridges.values(), lanSegments, convergence);
+        return 1;
+    }
+}
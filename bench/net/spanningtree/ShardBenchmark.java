@@ -0,0 +1,55 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Sharded run, partitioning, worker start-up and all rounds until every bridge
+ * stops. Throughput as workers are added depends on cores, ring of rings partitions
+ * with few cut LAN segments, a random graph with many.
+ */
+class ShardBenchmark extends Benchmark {
+    private Configurations configurations;
+    private String snapshot;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("topology", new String[]{"ring-of-rings", "gnp"});
+        params.put("shards", new String[]{"1", "2", "4"});
+        return params;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        configurations = new Configurations();
+        configurations.topology = params.get("topology");
+        configurations.adaptor = "greedy";
+        configurations.shards = Integer.parseInt(params.get("shards"));
+        final UndirectedGraph<Integer, DefaultEdge> g = Main.createConceptGraph(configurations, 2000, 0.01);
+        final HashMap<Integer, Bridge> bridges = new HashMap<>();
+        final HashSet<LanSegment> lanSegments = new HashSet<>();
+        Main.networkAdaptor(g, bridges, lanSegments, new Simulation(configurations, g.vertexSet().size()));
+        final File file = File.createTempFile("shard-benchmark", ".snapshot");
+        file.deleteOnExit();
+        snapshot = file.getPath();
+        NetworkSnapshot.save(snapshot, bridges.values(), lanSegments);
+    }
+
+    @Override
+    long invoke() throws Exception {
+        new ShardCoordinator(configurations, snapshot).run();
+        return 1;
+    }
+}
@@ -0,0 +1,26 @@
+package net.spanningtree;
+
+/***
+ * Bridge stand-in which only counts what it receives
+ */
+final class Sink extends Element {
+    long received = 0;
+
+    Sink(int id, Simulation simulation) {
+        super(id, simulation);
+    }
+
+    @Override
+    void enqueue(int port, BridgeFrame frame) {
+        received++;
+    }
+
+    @Override
+    String getAbbreviation() {
+        return "S";
+    }
+
+    @Override
+    void tick() {
+    }
+}
@@ -0,0 +1,48 @@
+package net.spanningtree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Main.createConceptGraph, time to generate a concept graph
+ */
+class TopologyBenchmark extends Benchmark {
+    private int nodes;
+    private double density;
+    private Configurations configurations;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("topology", new String[]{"legacy", "gnp", "scale-free"});
+        params.put("nodes", new String[]{"100", "1000", "10000"});
+        params.put("density", new String[]{"0.01", "0.1"});
+        return params;
+    }
+
+    @Override
+    boolean skip(Map<String, String> params) {
+        final int nodes = Integer.parseInt(params.get("nodes"));
+        // legacy is quadratic, dense large graphs don't fit the default heap
+        return nodes >= 10000 && (params.get("topology").equals("legacy") || params.get("density").equals("0.1"));
+    }
+
+    @Override
+    void setup(Map<String, String> params) {
+        configurations = new Configurations();
+        configurations.topology = params.get("topology");
+        nodes = Integer.parseInt(params.get("nodes"));
+        density = Double.parseDouble(params.get("density"));
+    }
+
+    @Override
+    long invoke() {
+        blackHole += Main.createConceptGraph(configurations, nodes, density).edgeSet().size();
+        return 1;
+    }
+}
@@ -0,0 +1,48 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***
+ * Verifier, time to solve and check a ring of rings network. The network doesn't
+ * run, undecided ports are disagreements which are counted like any other.
+ */
+class VerifierBenchmark extends Benchmark {
+    private HashMap<Integer, Bridge> bridges;
+    private HashSet<LanSegment> lanSegments;
+
+    @Override
+    Mode mode() {
+        return Mode.AVERAGE_TIME;
+    }
+
+    @Override
+    Map<String, String[]> params() {
+        final Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("nodes", new String[]{"10000", "100000", "1000000"});
+        return params;
+    }
+
+    @Override
+    void setup(Map<String, String> params) throws Exception {
+        final Configurations configurations = new Configurations();
+        configurations.topology = "ring-of-rings";
+        configurations.adaptor = "greedy";
+        final UndirectedGraph<Integer, DefaultEdge> g = Main.createConceptGraph(configurations,
+                Integer.parseInt(params.get("nodes")), 0);
+        bridges = new HashMap<>();
+        lanSegments = new HashSet<>();
+        Main.networkAdaptor(g, bridges, lanSegments, new Simulation(configurations, g.vertexSet().size()));
+    }
+
+    @Override
+    long invoke() {
+        blackHole += new Verifier(bridges.values(), lanSegments).getDisagreements();
+        return 1;
+    }
+}
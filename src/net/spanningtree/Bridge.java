@@ -1,198 +1,97 @@
 package net.spanningtree;
 
-import java.util.HashMap;
-
 /**
  * Created by Amir Razmjou
  * Fitzroy Nembhard on 11/26/14.
  */
-class Bridge extends Element {
-    private States state = States.ROOT_ADVERTISE;
-    private int rootId = id;
-    private int costToRoot = Integer.MAX_VALUE;
-    private int rootPort;
-    private int designatedPort;
-    private LanSegment designatedBridge;
-    private LanSegment designatedPortNetwork;
-    private boolean isRoot = true;
-    private long time = 0;
-    final HashMap<Integer, Integer> portCostToRoot = new HashMap<>();
-    private enum PortStatus { RP, DP, BLOCKED}
-    final HashMap<Integer,PortStatus> portStates = new HashMap<>();
-    public enum States {ROOT_ADVERTISE, RP_ELECTION, DP_ELECTION, ROOT_LISTEN, DP_LISTEN, SHUTDOWN}
+abstract class Bridge extends Element {
+    enum PortStatus { RP, DP, BLOCKED, DISABLED}
+    static final int NO_PORT = -1;
+    public enum States {ROOT_ADVERTISE, RP_ELECTION, DP_ELECTION, ROOT_LISTEN, DP_LISTEN, SHUTDOWN, STABLE,
+        TOPOLOGY_CHANGE, RSTP_BPDU}
+    // recording of the deliveries of this bridge, null when not recorded
+    DeliveryRecorder.Track track;
+
+    Bridge(int id, Simulation simulation) {
+        super(id, simulation);
+    }
 
+    /***
+     * @param id bridge id
+     * @param simulation simulation the bridge belongs to, its protocol setting is
+     *                   stp for the classic phased protocol or rstp for rapid spanning tree
+     * @return bridge running the protocol of simulation
+     */
+    static Bridge create(int id, Simulation simulation) {
+        final String protocol = simulation.configurations.protocol;
+        switch (protocol) {
+            case "stp":
+                return new StpBridge(id, simulation);
+            case "rstp":
+                return new RstpBridge(id, simulation);
+            default:
+                throw new IllegalArgumentException("Unknown protocol " + protocol);
+        }
+    }
 
+    /***
+     * @param port local port number
+     * @return state of port or null if not decided yet
+     */
+    abstract PortStatus getPortStatus(int port);
 
-    public Bridge(int id) {
-        super(id);
-    }
+    /***
+     * @param port local port number
+     * @return true if port forwards data frames
+     */
+    abstract boolean isForwarding(int port);
+
+    abstract int getRootId();
+
+    abstract int getCostToRoot();
 
     @Override
     String getAbbreviation() {
         return "B";
     }
 
+    /***
+     * Runs one step, sampled when metrics are on
+     */
     @Override
     void tick() {
-        time++;
-
-        final int ROOT_ELECT_TIME_OUT = 100;
-        final int RP_ELECT_TIME_OUT = ROOT_ELECT_TIME_OUT + 100;
-        final int DP_ELECT_TIME_OUT = RP_ELECT_TIME_OUT;
-        final int DP_LISTEN_TIME_OUT = DP_ELECT_TIME_OUT + 100;
-
-
-        BridgeFrame frame;
-        //simple sequential state machine
-        switch (state) {
-            case ROOT_ADVERTISE:
-                // for every neighbor advertise yourself as root with your own root id
-                for (Element neighbor : ports.values()) {
-                    neighbor.enqueue(this, new BridgeFrame(this, getId(), rootId,
-                            States.ROOT_ADVERTISE));
-                }
-                System.out.println(getId() + " QS:" + frameQueue.size() +
-                        " Advertising R: " + rootId + " to " + ports.values());
-
-                // switch ino listen state
-                state = States.ROOT_LISTEN;
-                break;
-            case ROOT_LISTEN:
-                if ((frame = frameQueue.peek()) != null) {
-                    if (frame.getMode() == States.ROOT_ADVERTISE) {
-                        frameQueue.remove(frame);
-                        // change your root id if you received root id less than yours
-                        if (frame.getMessage() < rootId) {
-
-                            rootId = frame.getMessage();
-                            rootPort = ports.inverse().get(frame.getSender());
-                            isRoot = false;
-                            System.out.println(getId() + " QS:" + frameQueue.size() +
-                                    " Changing root ID to: " + rootId);
-                            state = States.ROOT_ADVERTISE;
-                        }
-                    }
-                }
-
-                if (time > ROOT_ELECT_TIME_OUT) {
-                    // all ports of root must remain dp
-                    if (!isRoot)
-                       portStates.put(rootPort, PortStatus.RP);
-                    state = States.RP_ELECTION;
-                }
-
-                break;
-
-            case RP_ELECTION:
-                // for roots only
-                if (isRoot) {
-                    //  System.out.println(getId() + " I AM ROOT");
-                    for (Element neighbor : ports.values()) {
-                        neighbor.enqueue(this, new BridgeFrame(this, getId(), rootId,
-                                States.RP_ELECTION));
-                    }
-                    costToRoot = 0;
-                    // make all ports of root DP
-                    for (Integer port : ports.keySet()) {
-                        portStates.put(port, PortStatus.DP);
-                    }
-                } else {
-                    if ((frame = frameQueue.peek()) != null
-                            && frame.getMode() == States.RP_ELECTION) {
-
-                        frameQueue.remove(frame);
-
-                        int receivedPort = ports.inverse().get(frame.getSender());
-
-                        if (frame.getMode() == States.RP_ELECTION) {
-                            if (frame.getCost() < costToRoot) {
-                                costToRoot = frame.getCost();
-                                rootPort = receivedPort;
-                                designatedBridge = (LanSegment) frame.getSender();
-
-                                System.out.println(getId() + ": cost to root is " + costToRoot + " from " + rootPort + " " + designatedBridge);
-                                for (Integer port : ports.keySet()) {
-                                    if (port == receivedPort)
-                                        continue;
-
-                                    final BridgeFrame clone = frame.clone(this);
-                                    clone.incrementCost();
-                                    ports.get(port).enqueue(this, clone);
-                                }
-
-                            }
-                        }
-                    }
-                }
-
-                if (time > RP_ELECT_TIME_OUT) {
-                    state = States.DP_ELECTION;
-                }
-
-                break;
-
-            case DP_ELECTION:
-                // port to "cost to root"
-                for (Element neighbor : ports.values()) {
-                    if (neighbor == designatedBridge)
-                        continue;
-
-                    int  portId = ports.inverse().get(neighbor);
-                    neighbor.enqueue(this, new BridgeFrame(this, getId(), costToRoot,
-                            States.DP_ELECTION, portId));
-
-                    System.out.println(getId() + " advertising DP with cost " + costToRoot + " to " + neighbor);
-
-                    portCostToRoot.put(portId, costToRoot);
-                }
-
-                //if (time > DP_ELECT_TIME_OUT)
-                    state = States.DP_LISTEN;
-
-                //System.out.println("I'm " + getId() + " my cost is " + costToRoot);
-                break;
-
-            case DP_LISTEN:
-                if ((frame = frameQueue.peek()) != null) {
-                    if (frame.getMode() == States.DP_ELECTION) {
-                        int receivedPort = ports.inverse().get(frame.getSender());
-                        Integer myCost = portCostToRoot.get(receivedPort);
-                        final int newCost = frame.getMessage();
-                        final int tieBreaker = frame.getTieBreaker();
-
-                        if (myCost == null) {
-                            myCost = costToRoot;
-                        }
-
-                        System.out.println(getId() + " got cost of " + newCost + " on port " + receivedPort + " but I already got " + myCost + " his portId is " + frame.getTieBreaker());
-
-                            if (newCost < myCost)  {
-                                portStates.put(receivedPort, PortStatus.BLOCKED);
-
-                            }
-                    }
-                }
-
-
-                // if we didn't hear from a lan segment it means we are the
-                // only bridge connecting him to rest of network
-                for (Integer port : ports.keySet()) {
-                    if (!portStates.keySet().contains(port))
-                        portStates.put(port, PortStatus.DP);
-                }
-
-                //   if (time > DP_LISTEN_TIME_OUT)
-                state = States.SHUTDOWN;
-            break;
-
-            case SHUTDOWN:
-                System.out.println(this + " " + portStates);
-                stop();
-                break;
-
-            default:
-                throw new RuntimeException("Unknown bridge state " + state);
+        if (!metrics.enabled || !metrics.sample(this)) {
+            step();
+        } else {
+            final int depth = frameQueue.size();
+            final long started = System.nanoTime();
+            step();
+            metrics.ticked(this, depth, System.nanoTime() - started);
         }
+        // phase checks come after the polls, a stopped bridge is no longer recorded
+        if (track != null && isAlive())
+            track.ticked(convergence.getPhase());
     }
 
+    /***
+     * Handles the frames of one tick and sends what the protocol answers
+     */
+    abstract void step();
+
+    /***
+     * Takes down the link of a port, called by the engine between ticks
+     * @param port local port number
+     */
+    abstract void linkDown(int port);
+
+    /***
+     * Restores the link of a port, called by the engine between ticks
+     * @param port local port number
+     */
+    abstract void linkUp(int port);
+
+    /***
+     * Takes down all links and stops, called by the engine between ticks
+     */
+    abstract void kill();
 }
@@ -3,57 +3,82 @@ package net.spanningtree;
 /**
  * Created by Amir Razmjou
  * Fitzroy Nembhard on 11/27/14.
+ *
+ * Immutable payload of a frame. A single instance is shared by every port it is
+ * broadcast to, per delivery data such as the port it arrived at lives in the
+ * receiver's inbox.
  */
-public final class BridgeFrame implements Cloneable {
+public final class BridgeFrame {
     // either rootId or "cost to root"
     private final int message;
     private final int tieBreaker;
     private final Bridge.States mode;
+    // bridge which created this payload
     private final Element sender;
-    private final String source;
-    private int cost;
+    private final int cost;
+    // RSTP BPDUs only, RstpBridge flag bits
+    private final int flags;
 
-    BridgeFrame(Element sender, String source, int message, Bridge.States mode) {
-        this.sender = sender;
-        this.source = source;
-        this.message = message;
-        this.mode = mode;
-        this.cost = 1;
-        tieBreaker = 0;
+    BridgeFrame(Element sender, int message, Bridge.States mode) {
+        this(sender, message, mode, 1, 0, 0);
     }
 
 
-    BridgeFrame(Element sender, String source, int message, Bridge.States mode, int tieBreaker) {
-        this.sender = sender;
-        this.source = source;
-        this.message = message;
-        this.mode = mode;
-        this.cost = 0;
-        this.tieBreaker = tieBreaker;
+    BridgeFrame(Element sender, int message, Bridge.States mode, int tieBreaker) {
+        this(sender, message, mode, 0, tieBreaker, 0);
+    }
+
+    /***
+     * Root advertisement of a bridge which already knows its cost to root
+     * @param sender advertising bridge
+     * @param rootId root id known to sender
+     * @param costToRoot cost to root of sender
+     * @param portId port id (MAC) of the sending port, breaks ties between equal costs
+     * @return frame carrying the cost to root through sender
+     */
+    static BridgeFrame advertise(Element sender, int rootId, int costToRoot, int portId) {
+        return new BridgeFrame(sender, rootId, Bridge.States.RP_ELECTION, costToRoot + 1, portId, 0);
+    }
+
+    /***
+     * RSTP BPDU carrying the priority vector of the sending port
+     * @param sender sending bridge, its id is the designated bridge id
+     * @param rootId root id known to sender
+     * @param costToRoot cost to root of sender
+     * @param portId port id (MAC) of the sending port
+     * @param flags port role, proposal and agreement bits of RstpBridge
+     * @return new BPDU
+     */
+    static BridgeFrame bpdu(Element sender, int rootId, int costToRoot, int portId, int flags) {
+        return new BridgeFrame(sender, rootId, Bridge.States.RSTP_BPDU, costToRoot, portId, flags);
     }
 
     /***
-     * copy constructor
-     * @param sender
-     * @param source
-     * @param message
-     * @param mode
-     * @param cost
-     * @param tieBreaker
+     * Frame decoded from the batch of another shard of a sharded run
+     * @param sender element standing in for the sender
+     * @return frame with all fields as sent
      */
-    private BridgeFrame(Element sender, String source, int message, Bridge.States mode, int cost, int tieBreaker) {
+    static BridgeFrame decoded(Element sender, int message, Bridge.States mode, int cost, int tieBreaker,
+                               int flags) {
+        return new BridgeFrame(sender, message, mode, cost, tieBreaker, flags);
+    }
+
+    private BridgeFrame(Element sender, int message, Bridge.States mode, int cost, int tieBreaker, int flags) {
         this.sender = sender;
-        this.source = source;
         this.message = message;
         this.mode = mode;
         this.cost = cost;
         this.tieBreaker = tieBreaker;
+        this.flags = flags;
     }
 
-
-
-    public BridgeFrame clone(Element newSender) {
-        return new BridgeFrame(newSender, this.source, this.message, this.mode, this.cost, this.tieBreaker);
+    /***
+     * Same payload forwarded one hop further from root
+     * @param newSender forwarding bridge
+     * @return new frame with incremented cost
+     */
+    BridgeFrame forward(Element newSender) {
+        return new BridgeFrame(newSender, this.message, this.mode, this.cost + 1, this.tieBreaker, this.flags);
     }
 
     public int getMessage() {
@@ -72,8 +97,9 @@ public final class BridgeFrame implements Cloneable {
                 ", tieBreaker=" + tieBreaker +
                 ", mode=" + mode +
                 ", sender=" + sender +
-                ", source='" + source + '\'' +
+                ", source='" + sender.getId() + '\'' +
                 ", cost=" + cost +
+                ", flags=" + flags +
                 '}';
     }
 
@@ -81,11 +107,6 @@ public final class BridgeFrame implements Cloneable {
         return sender;
     }
 
-
-    public void incrementCost() {
-        cost++;
-    }
-
     int getCost() {
         return cost;
     }
@@ -94,4 +115,8 @@ public final class BridgeFrame implements Cloneable {
         return tieBreaker;
     }
 
+    int getFlags() {
+        return flags;
+    }
+
 }
@@ -0,0 +1,36 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.alg.BronKerboschCliqueFinder;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/***
+ * One segment per maximal clique found by Bron Kerbosch. Gives the fewest, largest
+ * segments but the number of maximal cliques, and so the running time, is
+ * exponential in the worst case.
+ */
+class CliqueSegmentAdaptor extends SegmentAdaptor {
+
+    @Override
+    List<int[]> segments(UndirectedGraph<Integer, DefaultEdge> g) {
+        BronKerboschCliqueFinder bronKerboschCliqueFinder = new BronKerboschCliqueFinder(g);
+
+        // set of cliques
+        Set<Set<Integer>> cliques = (Set<Set<Integer>>) bronKerboschCliqueFinder
+                .getAllMaximalCliques()
+                .stream()
+                .map(m -> (Set<Integer>) m)
+                .collect(Collectors.toSet());
+
+        final List<int[]> segments = new ArrayList<>(cliques.size());
+        for (Set<Integer> clique : cliques) {
+            segments.add(clique.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,489 @@
+package net.spanningtree;
+
+import java.util.Arrays;
+
+/***
+ * Struct of arrays form of a saved network, for networks of millions of bridges
+ * whose objects don't fit in a heap. Runs the classic STP of Bridge.step without
+ * an object per element, frame or inbox: port tables stay in the CSR buffers of
+ * the snapshot, bridge and port state lives in primitive arrays indexed by element
+ * index and port slot, and frames in flight live in two pools of primitive
+ * arrays: payloads, shared by every port a frame is broadcast or forwarded to and
+ * reference counted, and deliveries of a payload to a port, linked into a list
+ * per element inbox.
+ * Rounds are lock-step like a sharded run: frames sent in round k are delivered in
+ * round k + 1 sorted by the port they arrive at, phases complete at round barriers,
+ * so rounds, frames and the final tree equal those of --shards. Initial convergence
+ * only, on one thread.
+ */
+class CompactNetwork {
+    private static final int NONE = -1;
+    private static final byte UNDECIDED = -1;
+    // state of a bridge which shut down
+    private static final byte STOPPED = -1;
+    private static final Bridge.States[] STATES = Bridge.States.values();
+    private static final byte ROOT_ADVERTISE = (byte) Bridge.States.ROOT_ADVERTISE.ordinal();
+    private static final byte RP_ELECTION = (byte) Bridge.States.RP_ELECTION.ordinal();
+    private static final byte DP_ELECTION = (byte) Bridge.States.DP_ELECTION.ordinal();
+    private static final byte ROOT_LISTEN = (byte) Bridge.States.ROOT_LISTEN.ordinal();
+    private static final byte DP_LISTEN = (byte) Bridge.States.DP_LISTEN.ordinal();
+    private static final byte SHUTDOWN = (byte) Bridge.States.SHUTDOWN.ordinal();
+    private static final byte RP = (byte) Bridge.PortStatus.RP.ordinal();
+    private static final byte DP = (byte) Bridge.PortStatus.DP.ordinal();
+    private static final byte BLOCKED = (byte) Bridge.PortStatus.BLOCKED.ordinal();
+
+    private final NetworkSnapshot snapshot;
+    private final int bridgeCount;
+    private final int elementCount;
+    private final Convergence convergence;
+
+    // per bridge, same fields as Bridge, a bridge is root while its root id is its own
+    private final byte[] state;
+    private final int[] rootId;
+    private final int[] costToRoot;
+    private final int[] rootPort;
+    private final int[] designatedBridge;
+    private final int[] designatedPortId;
+    // per port slot of a bridge, bridges come first so their slots do too
+    private final byte[] portState;
+    private final int[] portCost;
+    // per element, first and last node of its inbox
+    private final int[] inboxHead;
+    private final int[] inboxTail;
+    // per port slot, frames arriving there in the next round
+    private final int[] nextHead;
+    private final int[] nextTail;
+    // elements with frames arriving next round, flipRound only visits these
+    private final boolean[] receiving;
+    private int[] receivers = new int[1024];
+    private int receiverCount = 0;
+
+    // delivery pool, next delivery in the same list, port it arrives at, payload
+    private int[] link = new int[0];
+    private int[] port = new int[0];
+    private int[] payload = new int[0];
+    private int freeDelivery = NONE;
+    private int deliveries = 0;
+    private int inFlight = 0;
+    private int peak = 0;
+    // payload pool, same fields as BridgeFrame, refs links free payloads
+    private int[] sender = new int[0];
+    private int[] message = new int[0];
+    private int[] cost = new int[0];
+    private int[] tieBreaker = new int[0];
+    private byte[] mode = new byte[0];
+    private int[] refs = new int[0];
+    private int freePayload = NONE;
+    private int payloads = 0;
+
+    private long rounds = 0;
+    private long frames = 0;
+
+    /***
+     * @param snapshot network to run, its port tables are used in place
+     */
+    CompactNetwork(NetworkSnapshot snapshot) {
+        this.snapshot = snapshot;
+        bridgeCount = snapshot.getBridgeCount();
+        elementCount = snapshot.getElementCount();
+        convergence = new Convergence(bridgeCount);
+
+        state = new byte[bridgeCount];
+        rootId = new int[bridgeCount];
+        costToRoot = new int[bridgeCount];
+        rootPort = new int[bridgeCount];
+        designatedBridge = new int[bridgeCount];
+        designatedPortId = new int[bridgeCount];
+        for (int b = 0; b < bridgeCount; b++) {
+            rootId[b] = snapshot.idOf(b);
+        }
+        Arrays.fill(state, ROOT_ADVERTISE);
+        Arrays.fill(costToRoot, Integer.MAX_VALUE);
+        Arrays.fill(rootPort, Bridge.NO_PORT);
+        Arrays.fill(designatedBridge, Integer.MAX_VALUE);
+        Arrays.fill(designatedPortId, Integer.MAX_VALUE);
+
+        portState = new byte[snapshot.offsetOf(bridgeCount)];
+        portCost = new int[portState.length];
+        Arrays.fill(portState, UNDECIDED);
+
+        inboxHead = new int[elementCount];
+        inboxTail = new int[elementCount];
+        nextHead = new int[snapshot.offsetOf(elementCount)];
+        nextTail = new int[nextHead.length];
+        Arrays.fill(inboxHead, NONE);
+        Arrays.fill(nextHead, NONE);
+        receiving = new boolean[elementCount];
+        growDeliveries(1024);
+        growPayloads(1024);
+    }
+
+    Convergence getConvergence() {
+        return convergence;
+    }
+
+    /***
+     * Runs rounds until every bridge shut down
+     */
+    void run() {
+        final long started = System.nanoTime();
+        convergence.shard(bridgeCount);
+        convergence.start(() -> rounds * Element.PERIOD);
+        int running = bridgeCount;
+        while (running > 0) {
+            final Convergence.Phase phase = convergence.getPhase();
+            for (int b = 0; b < bridgeCount; b++) {
+                // a listening bridge with nothing to poll does nothing until its phase comes
+                if (state[b] == STOPPED || (inboxHead[b] == NONE && waiting(state[b], phase)))
+                    continue;
+                step(b, phase);
+                if (state[b] == STOPPED)
+                    running--;
+            }
+            for (int segment = bridgeCount; segment < elementCount; segment++) {
+                forward(segment);
+            }
+            flipRound();
+            if (running == 0)
+                break;
+            // network is quiet at the barrier
+            if (convergence.getWork() == 0 && phase != Convergence.Phase.DONE)
+                convergence.advanceExternally();
+            rounds++;
+        }
+        final long elapsed = Math.max(1, (System.nanoTime() - started) / 1000000);
+        System.out.println("compact: " + rounds + " rounds in " + elapsed + " ms, " + rounds * 1000 / elapsed +
+                " rounds/s, " + frames * 1000 / elapsed + " frames/s");
+    }
+
+    /***
+     * Prints bytes per bridge of the network, LAN segments included, and of the
+     * frame pools at their largest
+     */
+    void printFootprint() {
+        final long bridges = Math.max(1, bridgeCount);
+        final long stateBytes = bridgeCount * (1 + 5 * 4L) + portState.length * 5L;
+        final long inboxBytes = elementCount * (8L + 1) + nextHead.length * 8L + receivers.length * 4L;
+        final long portBytes = snapshot.getBytes();
+        final long network = stateBytes + inboxBytes + portBytes;
+        final long frameBytes = link.length * 3 * 4L + sender.length * (5 * 4L + 1);
+        System.out.println("compact: " + network / (1 << 20) + " MB, " + network / bridges +
+                " bytes per bridge: state " + stateBytes / bridges + ", inboxes " + inboxBytes / bridges +
+                ", port tables " + portBytes / bridges);
+        System.out.println("compact: frames " + frameBytes / (1 << 20) + " MB, " + frameBytes / bridges +
+                " bytes per bridge, " + peak + " deliveries in flight at most");
+    }
+
+    /***
+     * @return summary of the final tree
+     */
+    TreeSummary summarize() {
+        final TreeSummary summary = new TreeSummary();
+        for (int b = 0; b < bridgeCount; b++) {
+            summary.addBridge(snapshot.idOf(b), rootId[b], costToRoot[b]);
+            for (int slot = snapshot.offsetOf(b); slot < snapshot.offsetOf(b + 1); slot++) {
+                summary.addPort(portState[slot]);
+            }
+        }
+        return summary;
+    }
+
+    private static boolean waiting(byte state, Convergence.Phase phase) {
+        switch (STATES[state]) {
+            case ROOT_LISTEN:
+                return phase == Convergence.Phase.ROOT;
+            case RP_ELECTION:
+                return phase.ordinal() < Convergence.Phase.DP.ordinal();
+            case DP_LISTEN:
+                return phase != Convergence.Phase.DONE;
+            default:
+                return false;
+        }
+    }
+
+    /***
+     * Bridge.step on the arrays of bridge b
+     */
+    private void step(int b, Convergence.Phase phase) {
+        final int first = snapshot.offsetOf(b);
+        final int ports = snapshot.offsetOf(b + 1) - first;
+        final int id = snapshot.idOf(b);
+        int frame;
+        switch (STATES[state[b]]) {
+            case ROOT_ADVERTISE:
+                broadcast(b, payload(id, rootId[b], ROOT_ADVERTISE, 1, 0), NONE);
+                state[b] = ROOT_LISTEN;
+                convergence.done();
+                break;
+            case ROOT_LISTEN:
+                if ((frame = pollIf(b, ROOT_ADVERTISE)) != NONE) {
+                    final int received = message[payload[frame]];
+                    if (received < rootId[b]) {
+                        rootId[b] = received;
+                        rootPort[b] = port[frame];
+                        state[b] = ROOT_ADVERTISE;
+                        convergence.busy();
+                    }
+                    release(frame);
+                    convergence.consumed();
+                }
+                if (phase.ordinal() >= Convergence.Phase.RP.ordinal()) {
+                    if (rootId[b] == id) {
+                        costToRoot[b] = 0;
+                        advertise(b, Bridge.NO_PORT);
+                        Arrays.fill(portState, first, first + ports, DP);
+                    }
+                    state[b] = RP_ELECTION;
+                    convergence.done();
+                }
+                break;
+            case RP_ELECTION:
+                if ((frame = pollIf(b, RP_ELECTION)) != NONE) {
+                    final int offered = cost[payload[frame]];
+                    // root just drops costs flooded back to it
+                    final boolean isRoot = rootId[b] == id;
+                    if (!isRoot && offered < costToRoot[b]) {
+                        costToRoot[b] = offered;
+                        setRootPort(b, frame);
+                        advertise(b, port[frame]);
+                    } else if (!isRoot && offered == costToRoot[b] && closerDesignated(b, frame)) {
+                        setRootPort(b, frame);
+                    }
+                    release(frame);
+                    convergence.consumed();
+                }
+                if (phase.ordinal() >= Convergence.Phase.DP.ordinal()) {
+                    if (rootId[b] != id)
+                        portState[first + rootPort[b]] = RP;
+                    state[b] = DP_ELECTION;
+                }
+                break;
+            case DP_ELECTION:
+                broadcast(b, payload(id, costToRoot[b], DP_ELECTION, 0, id), rootPort[b]);
+                for (int p = 0; p < ports; p++) {
+                    if (p != rootPort[b])
+                        portCost[first + p] = costToRoot[b];
+                }
+                state[b] = DP_LISTEN;
+                convergence.done();
+                break;
+            case DP_LISTEN:
+                if ((frame = pollIf(b, DP_ELECTION)) != NONE) {
+                    final int received = port[frame];
+                    // root port never gets blocked, equal costs are broken by lower bridge id
+                    if (received != rootPort[b]) {
+                        final int myCost = portCost[first + received];
+                        final int newCost = message[payload[frame]];
+                        if (newCost < myCost || (newCost == myCost && tieBreaker[payload[frame]] < id))
+                            portState[first + received] = BLOCKED;
+                    }
+                    release(frame);
+                    convergence.consumed();
+                }
+                if (phase == Convergence.Phase.DONE) {
+                    for (int slot = first; slot < first + ports; slot++) {
+                        if (portState[slot] == UNDECIDED)
+                            portState[slot] = DP;
+                    }
+                    // no topology changes, nothing to stay around for
+                    state[b] = SHUTDOWN;
+                }
+                break;
+            case SHUTDOWN:
+                state[b] = STOPPED;
+                convergence.bridgeStopped();
+                break;
+            default:
+                throw new RuntimeException("Unknown bridge state " + STATES[state[b]]);
+        }
+    }
+
+    /***
+     * LanSegment.step, forwards every payload received to all other ports
+     */
+    private void forward(int segment) {
+        int frame;
+        while ((frame = inboxHead[segment]) != NONE) {
+            inboxHead[segment] = link[frame];
+            broadcast(segment, payload[frame], port[frame]);
+            release(frame);
+            convergence.consumed();
+        }
+    }
+
+    /***
+     * Advertises root and cost to root on all ports but one, every payload carries
+     * the id of the port it leaves through
+     */
+    private void advertise(int b, int exceptPort) {
+        final int first = snapshot.offsetOf(b);
+        final int ports = snapshot.offsetOf(b + 1) - first;
+        final int id = snapshot.idOf(b);
+        for (int p = 0; p < ports; p++) {
+            if (p != exceptPort) {
+                final int advertisement = payload(id, rootId[b], RP_ELECTION, costToRoot[b] + 1,
+                        snapshot.portIdAt(first + p));
+                send(b, p, advertisement);
+            }
+        }
+    }
+
+    private void setRootPort(int b, int frame) {
+        rootPort[b] = port[frame];
+        designatedBridge[b] = sender[payload[frame]];
+        designatedPortId[b] = tieBreaker[payload[frame]];
+    }
+
+    private boolean closerDesignated(int b, int frame) {
+        final int designated = sender[payload[frame]];
+        if (designated != designatedBridge[b])
+            return designated < designatedBridge[b];
+        return tieBreaker[payload[frame]] < designatedPortId[b];
+    }
+
+    /***
+     * @return head of the inbox of element if its payload has that mode, taken off
+     * the inbox, or NONE
+     */
+    private int pollIf(int e, byte frameMode) {
+        final int frame = inboxHead[e];
+        if (frame == NONE || mode[payload[frame]] != frameMode)
+            return NONE;
+        inboxHead[e] = link[frame];
+        return frame;
+    }
+
+    /***
+     * Sends the same payload out of all ports but one
+     */
+    private void broadcast(int e, int shared, int exceptPort) {
+        final int ports = snapshot.degreeOf(e);
+        for (int p = 0; p < ports; p++) {
+            if (p != exceptPort)
+                send(e, p, shared);
+        }
+        // no port to send it to
+        if (refs[shared] == 0)
+            freePayload(shared);
+    }
+
+    /***
+     * Sends a payload out of a local port, it arrives next round
+     */
+    private void send(int e, int localPort, int shared) {
+        final int slot = snapshot.offsetOf(e) + localPort;
+        final int remote = snapshot.remotePortAt(slot);
+        final int neighbor = snapshot.neighborAt(slot);
+        final int target = snapshot.offsetOf(neighbor) + remote;
+        final int frame = allocate();
+        link[frame] = NONE;
+        port[frame] = remote;
+        payload[frame] = shared;
+        refs[shared]++;
+        if (nextHead[target] == NONE)
+            nextHead[target] = frame;
+        else
+            link[nextTail[target]] = frame;
+        nextTail[target] = frame;
+        if (!receiving[neighbor]) {
+            receiving[neighbor] = true;
+            if (receiverCount == receivers.length)
+                receivers = Arrays.copyOf(receivers, 2 * receivers.length);
+            receivers[receiverCount++] = neighbor;
+        }
+        frames++;
+        convergence.sent();
+    }
+
+    /***
+     * Appends the frames of every port to its element's inbox in port order
+     */
+    private void flipRound() {
+        for (int i = 0; i < receiverCount; i++) {
+            final int e = receivers[i];
+            receiving[e] = false;
+            final int end = snapshot.offsetOf(e + 1);
+            for (int slot = snapshot.offsetOf(e); slot < end; slot++) {
+                final int head = nextHead[slot];
+                if (head == NONE)
+                    continue;
+                if (inboxHead[e] == NONE)
+                    inboxHead[e] = head;
+                else
+                    link[inboxTail[e]] = head;
+                inboxTail[e] = nextTail[slot];
+                nextHead[slot] = NONE;
+            }
+        }
+        receiverCount = 0;
+    }
+
+    /***
+     * @return new payload nobody refers to yet
+     */
+    private int payload(int from, int frameMessage, byte frameMode, int frameCost, int frameTieBreaker) {
+        int shared = freePayload;
+        if (shared != NONE) {
+            freePayload = refs[shared];
+        } else {
+            if (payloads == sender.length)
+                growPayloads(2 * sender.length);
+            shared = payloads++;
+        }
+        sender[shared] = from;
+        message[shared] = frameMessage;
+        mode[shared] = frameMode;
+        cost[shared] = frameCost;
+        tieBreaker[shared] = frameTieBreaker;
+        refs[shared] = 0;
+        return shared;
+    }
+
+    private void unref(int shared) {
+        if (--refs[shared] == 0)
+            freePayload(shared);
+    }
+
+    private void freePayload(int shared) {
+        refs[shared] = freePayload;
+        freePayload = shared;
+    }
+
+    private int allocate() {
+        int frame = freeDelivery;
+        if (frame != NONE) {
+            freeDelivery = link[frame];
+        } else {
+            if (deliveries == link.length)
+                growDeliveries(2 * link.length);
+            frame = deliveries++;
+        }
+        peak = Math.max(peak, ++inFlight);
+        return frame;
+    }
+
+    /***
+     * Frees a delivery and its payload once no other delivery refers to it
+     */
+    private void release(int frame) {
+        unref(payload[frame]);
+        link[frame] = freeDelivery;
+        freeDelivery = frame;
+        inFlight--;
+    }
+
+    private void growDeliveries(int capacity) {
+        link = Arrays.copyOf(link, capacity);
+        port = Arrays.copyOf(port, capacity);
+        payload = Arrays.copyOf(payload, capacity);
+    }
+
+    private void growPayloads(int capacity) {
+        sender = Arrays.copyOf(sender, capacity);
+        message = Arrays.copyOf(message, capacity);
+        cost = Arrays.copyOf(cost, capacity);
+        tieBreaker = Arrays.copyOf(tieBreaker, capacity);
+        mode = Arrays.copyOf(mode, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+    }
+}
@@ -1,11 +1,83 @@
 package net.spanningtree;
 
+import java.util.EnumSet;
+
 /**
  * Created by Amir Razmjou
  * Fitzroy Nembhard on 12/1/14.
+ *
+ * Settings of a single simulation, every run owns its own instance so runs in the
+ * same JVM don't see each other's settings.
  */
 public class Configurations {
-    public static int seedNetwork = 0;
-    public static int seedSync = 0;
-    public static boolean showCsv = false;
+    public int seedNetwork = 0;
+    public int seedSync = 0;
+    public boolean showCsv = false;
+    public String topology = "legacy";
+    public EnumSet<GraphDiagnostics.Statistic> diagnostics = EnumSet.of(GraphDiagnostics.Statistic.GRAPH,
+            GraphDiagnostics.Statistic.TREE, GraphDiagnostics.Statistic.CONNECTIVITY,
+            GraphDiagnostics.Statistic.DEGREE, GraphDiagnostics.Statistic.DIAMETER);
+    public String adaptor = "exact";
+    public int maxSegment = 0;
+    public String saveTopology = null;
+    public String loadTopology = null;
+    public String exportFile = null;
+    public String engine = "timer";
+    public String protocol = "stp";
+    public String failures = null;
+    public String sweep = null;
+    public String sweepOutput = "sweep.csv";
+    public boolean verify = false;
+    // worker processes of a sharded run, 0 runs in this process
+    public int shards = 0;
+    // delivery recording written by a run, or read by a replay instead of running
+    public String record = null;
+    public String replay = null;
+    public EventLog.Level logLevel = EventLog.Level.OFF;
+    public String logFile = "stpsim.log";
+    public int queueCapacity = 0;
+    public Inbox.Overflow queueOverflow = Inbox.Overflow.DROP_NEWEST;
+    public boolean queueStats = false;
+    // drop root and cost advertisements superseded by a pending one
+    public boolean coalesce = false;
+    // frames an stp bridge handles per tick, 0 for all it has
+    public int budget = 1;
+    public boolean metrics = false;
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    /***
+     * @return independent copy, runs of a sweep start from a copy of the command line settings
+     */
+    Configurations copy() {
+        final Configurations copy = new Configurations();
+        copy.seedNetwork = seedNetwork;
+        copy.seedSync = seedSync;
+        copy.showCsv = showCsv;
+        copy.topology = topology;
+        copy.diagnostics = EnumSet.copyOf(diagnostics);
+        copy.adaptor = adaptor;
+        copy.maxSegment = maxSegment;
+        copy.saveTopology = saveTopology;
+        copy.loadTopology = loadTopology;
+        copy.exportFile = exportFile;
+        copy.engine = engine;
+        copy.protocol = protocol;
+        copy.failures = failures;
+        copy.sweep = sweep;
+        copy.sweepOutput = sweepOutput;
+        copy.verify = verify;
+        copy.shards = shards;
+        copy.record = record;
+        copy.replay = replay;
+        copy.logLevel = logLevel;
+        copy.logFile = logFile;
+        copy.queueCapacity = queueCapacity;
+        copy.queueOverflow = queueOverflow;
+        copy.queueStats = queueStats;
+        copy.coalesce = coalesce;
+        copy.budget = budget;
+        copy.metrics = metrics;
+        copy.threads = threads;
+        return copy;
+    }
 }
@@ -0,0 +1,366 @@
+package net.spanningtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/***
+ * Global convergence detector. Counts outstanding work, that is frames in flight
+ * plus bridges that still have to advertise, termination detection style. A phase
+ * is complete as soon as the count drops to zero, in other words when the network
+ * is quiet, and all bridges are then allowed to move on to the next phase.
+ * Work is always added before the work causing it is released so the count can
+ * not hit zero while a frame is still being handled.
+ * A topology change after convergence starts a new epoch which runs through the
+ * same phases again, only bridges which joined the epoch have to check in.
+ * Protocols without phases, like RSTP, converge once the network is quiet for the
+ * first time and go straight to DONE.
+ * A shard of a sharded run only counts the work of its own elements, phases are
+ * advanced externally once the coordinator sees the work of all shards drop to zero.
+ * A replay sets the phases as recorded.
+ */
+class Convergence {
+    enum Phase {ROOT, RP, DP, DONE}
+
+    // bridges which have to check in every phase of the current epoch
+    private final AtomicInteger participants;
+    private final int bridges;
+    private boolean singlePhase = false;
+    // sharded run, the local count hitting zero doesn't complete a phase
+    private boolean external = false;
+    private final AtomicLong work;
+    private final AtomicLong[] frames = new AtomicLong[Phase.values().length];
+    private final long[] completedAt = new long[Phase.values().length];
+    private final CountDownLatch stopped;
+    // first element failure of a wall clock run, null if none
+    private volatile IllegalStateException failure;
+    private volatile Phase phase = Phase.ROOT;
+    private LongSupplier clock;
+    final Metrics metrics;
+    // 0 for the initial convergence, one more for every topology change
+    private volatile int epoch = 0;
+    private volatile int pendingChanges = 0;
+    private String change;
+    private long changedAt;
+    private long doneAt;
+    // converged epochs, printed by printReport
+    private final List<String> report = new ArrayList<>();
+
+    /***
+     * @param bridges number of bridges, each of them has to check in every phase
+     */
+    Convergence(int bridges) {
+        this(bridges, new Metrics());
+    }
+
+    /***
+     * @param bridges number of bridges, each of them has to check in every phase
+     * @param metrics runtime metrics of all elements
+     */
+    Convergence(int bridges, Metrics metrics) {
+        this.participants = new AtomicInteger(bridges);
+        this.bridges = bridges;
+        this.metrics = metrics;
+        metrics.attach(this);
+        this.work = new AtomicLong(bridges);
+        this.stopped = new CountDownLatch(bridges);
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new AtomicLong();
+        }
+    }
+
+    /***
+     * Starts measuring
+     * @param clock current time in milliseconds, virtual or wall clock
+     */
+    void start(LongSupplier clock) {
+        final long origin = clock.getAsLong();
+        this.clock = () -> clock.getAsLong() - origin;
+    }
+
+    /***
+     * Starts measuring with wall clock
+     */
+    void start() {
+        start(() -> System.nanoTime() / 1000000);
+    }
+
+    /***
+     * @return milliseconds since start, 0 before
+     */
+    long now() {
+        final LongSupplier clock = this.clock;
+        return clock == null ? 0 : clock.getAsLong();
+    }
+
+    /***
+     * Lets the network converge in a single phase, must be called before start
+     */
+    void singlePhase() {
+        singlePhase = true;
+    }
+
+    /***
+     * Counts the work of a single shard only, phases are then advanced by
+     * advanceExternally(), must be called before start
+     * @param localBridges number of bridges of this shard
+     */
+    void shard(int localBridges) {
+        external = true;
+        participants.set(localBridges);
+        work.set(localBridges);
+    }
+
+    /***
+     * Replay only, the phase is the one a recorded bridge saw at the start of its
+     * tick and the count is ignored
+     * @param phase recorded phase
+     */
+    void replay(Phase phase) {
+        external = true;
+        this.phase = phase;
+    }
+
+    /***
+     * Completes the current phase of a sharded run, the work of all shards is zero
+     */
+    void advanceExternally() {
+        advance();
+    }
+
+    /***
+     * @return outstanding work, of this shard only in a sharded run
+     */
+    long getWork() {
+        return work.get();
+    }
+
+    /***
+     * @return number of bridges the network started with
+     */
+    int getBridges() {
+        return bridges;
+    }
+
+    Phase getPhase() {
+        return phase;
+    }
+
+    int getEpoch() {
+        return epoch;
+    }
+
+    boolean reached(Phase phase) {
+        return this.phase.ordinal() >= phase.ordinal();
+    }
+
+    /***
+     * @return time the current epoch reached DONE
+     */
+    long getDoneAt() {
+        return doneAt;
+    }
+
+    /***
+     * Bridges must keep running after convergence while changes are pending
+     * @param changes number of topology changes still to come
+     */
+    void expectChanges(int changes) {
+        pendingChanges = changes;
+    }
+
+    /***
+     * @return true if converged and no topology change is pending, bridges may shut down
+     */
+    boolean finished() {
+        // read before phase, beginChange writes them in the opposite order
+        return pendingChanges == 0 && phase == Phase.DONE;
+    }
+
+    /***
+     * Starts a new epoch, work is held until endChange() so the epoch can't
+     * complete while the change is still being applied
+     * @param label description of change for the report
+     */
+    void beginChange(String label) {
+        change = label;
+        changedAt = now();
+        participants.set(0);
+        for (int i = 0; i < frames.length; i++) {
+            frames[i].set(0);
+            completedAt[i] = 0;
+        }
+        work.set(1);
+        epoch++;
+        phase = Phase.ROOT;
+        pendingChanges--;
+    }
+
+    /***
+     * Change is applied, the epoch converges as soon as the network is quiet
+     */
+    void endChange() {
+        release();
+    }
+
+    /***
+     * Bridge takes part in the current epoch and checks in to every later phase of it,
+     * must be called while work is held, that is while handling a frame or a change
+     */
+    void join() {
+        participants.incrementAndGet();
+    }
+
+    /***
+     * A frame is sent and in flight until it is consumed
+     */
+    void sent() {
+        frames[phase.ordinal()].incrementAndGet();
+        work.incrementAndGet();
+    }
+
+    /***
+     * A frame has been handled, any frame it caused must already be sent
+     */
+    void consumed() {
+        release();
+    }
+
+    /***
+     * Frames have been handled, any frame they caused must already be sent
+     * @param count number of frames
+     */
+    void consumed(int count) {
+        if (work.addAndGet(-count) == 0 && !external)
+            advance();
+    }
+
+    /***
+     * Bridge has work to do which doesn't show up as a frame yet
+     */
+    void busy() {
+        work.incrementAndGet();
+    }
+
+    /***
+     * Bridge has done its work for the current phase
+     */
+    void done() {
+        release();
+    }
+
+    private void release() {
+        if (work.decrementAndGet() == 0 && !external)
+            advance();
+    }
+
+    private void advance() {
+        final Phase completed = phase;
+        completedAt[completed.ordinal()] = now();
+        final Phase next = singlePhase ? Phase.DONE : Phase.values()[completed.ordinal() + 1];
+        if (next == Phase.DONE) {
+            doneAt = completedAt[completed.ordinal()];
+            if (epoch == 0)
+                report.addAll(phaseReport(next));
+            else
+                report.add(change + " at " + changedAt + " ms: reconverged in " +
+                        (completedAt[completed.ordinal()] - changedAt) + " ms with " + frameCount() +
+                        " frames, " + participants.get() + " bridges recomputed");
+            phase = next;
+            return;
+        }
+        // every participating bridge must check in to the new phase before it can complete,
+        // a phase nobody has to check in to is complete right away
+        final boolean idle = work.addAndGet(participants.get()) == 0;
+        phase = next;
+        if (idle && !external)
+            advance();
+    }
+
+    /***
+     * @return frames sent during the current epoch
+     */
+    long getFrames() {
+        return frameCount();
+    }
+
+    private long frameCount() {
+        long count = 0;
+        for (AtomicLong phaseFrames : frames) {
+            count += phaseFrames.get();
+        }
+        return count;
+    }
+
+    void bridgeStopped() {
+        stopped.countDown();
+    }
+
+    /***
+     * An element failed, the run can't converge any more and is aborted
+     * @param element failed element
+     * @param cause what it threw
+     */
+    synchronized void abort(Element element, Throwable cause) {
+        if (failure == null)
+            failure = new IllegalStateException(element.getId() + " failed", cause);
+        while (stopped.getCount() > 0) {
+            stopped.countDown();
+        }
+    }
+
+    /***
+     * Blocks until all bridges shut down
+     * @throws IllegalStateException if an element failed instead
+     */
+    void awaitStopped() throws InterruptedException {
+        stopped.await();
+        if (failure != null)
+            throw failure;
+    }
+
+    /***
+     * @param pending first phase of the initial convergence which did not complete
+     * @return time each phase took to converge and frames sent during it, then in total
+     */
+    private List<String> phaseReport(Phase pending) {
+        final List<String> lines = new ArrayList<>();
+        if (singlePhase) {
+            lines.add(pending == Phase.DONE ? "converged in " + doneAt + " ms with " + frameCount() + " frames" :
+                    "did not converge");
+            return lines;
+        }
+        long previous = 0;
+        for (Phase p : Phase.values()) {
+            if (p == Phase.DONE)
+                break;
+            if (p.ordinal() >= pending.ordinal()) {
+                lines.add("phase " + p + " did not converge");
+                break;
+            }
+            lines.add("phase " + p + " converged in " + (completedAt[p.ordinal()] - previous) +
+                    " ms with " + frames[p.ordinal()] + " frames");
+            previous = completedAt[p.ordinal()];
+        }
+        if (pending == Phase.DONE)
+            lines.add("converged in " + doneAt + " ms with " + frameCount() + " frames");
+        return lines;
+    }
+
+    /***
+     * Prints time each phase took to converge and frames sent during it, then
+     * reconvergence of every topology change
+     */
+    void printReport() {
+        report.forEach(System.out::println);
+        if (reached(Phase.DONE))
+            return;
+        if (epoch > 0)
+            System.out.println(change + " at " + changedAt + " ms: did not reconverge");
+        else
+            phaseReport(phase).forEach(System.out::println);
+    }
+}
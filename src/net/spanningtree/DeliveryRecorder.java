@@ -0,0 +1,233 @@
+package net.spanningtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/***
+ * Recording of the exact frame deliveries of a run, so that a run whose outcome
+ * depends on thread timing can be replayed by ReplayEngine single threaded and
+ * without timers. A bridge's state only depends on what each poll of its inbox
+ * returns and on the phase it sees, so that is what gets recorded for every tick
+ * of every bridge. The phase is taken at the end of the tick, bridges check it
+ * after polling. LAN segments only pass frames on and are not recorded.
+ * Each bridge collects its ticks in a buffer of its own, written only by the
+ * thread ticking it, full buffers are appended to the file under a lock. Polls
+ * which found nothing are only stored when a frame follows in the same tick, and
+ * runs of idle ticks in the same phase are stored once with a count. All values
+ * but the header ints and the fingerprint are unsigned varints:
+ * header   MAGIC, VERSION, bridges, LAN segments, frames a bridge handles per tick
+ * tick     bridge id + 1, phase, polls, then idle ticks if polls is 0, else per
+ *          poll port + 1 or 0 for nothing, then sender id << 1 | 1 for a LAN
+ *          segment, mode, message, cost, tie breaker, flags
+ * trailer  0, ticks, fingerprint of the final tree
+ */
+class DeliveryRecorder {
+    static final int MAGIC = 0x53545052; // "STPR"
+    static final int VERSION = 2;
+    // bytes a bridge collects before appending them to the file
+    private static final int FLUSH = 4096;
+
+    private final FileChannel channel;
+    private final String file;
+    private long bytes;
+
+    /***
+     * Tick by tick recording of one bridge, only used by the thread ticking it
+     */
+    final class Track {
+        private final int ref;
+        private ByteBuffer out = ByteBuffer.allocate(2 * FLUSH);
+        // polls of the tick in progress, written once it is over
+        private ByteBuffer polls = ByteBuffer.allocate(256);
+        private int pollCount = 0;
+        // polls which found nothing and are not written unless a frame follows
+        private int missed = 0;
+        // idle ticks not written yet and their phase
+        private int idle = 0;
+        private int idlePhase;
+        private long ticks = 0;
+
+        private Track(Bridge bridge) {
+            ref = bridge.id + 1;
+        }
+
+        /***
+         * Bridge completed a tick
+         * @param phase phase at the end of the tick
+         */
+        void ticked(Convergence.Phase phase) {
+            ticks++;
+            missed = 0;
+            if (pollCount == 0) {
+                if (idle > 0 && idlePhase != phase.ordinal())
+                    writeIdle();
+                idlePhase = phase.ordinal();
+                idle++;
+                return;
+            }
+            writeIdle();
+            polls.flip();
+            out = room(out, 15 + polls.remaining());
+            putVarint(out, ref);
+            putVarint(out, phase.ordinal());
+            putVarint(out, pollCount);
+            out.put(polls);
+            polls.clear();
+            pollCount = 0;
+            flush(false);
+        }
+
+        /***
+         * Inbox of the bridge was polled
+         * @param frame frame polled or null
+         * @param port port frame arrived at
+         */
+        void polled(BridgeFrame frame, int port) {
+            if (frame == null) {
+                missed++;
+                return;
+            }
+            polls = room(polls, 64 + missed);
+            for (; missed > 0; missed--) {
+                polls.put((byte) 0);
+                pollCount++;
+            }
+            final Element sender = frame.getSender();
+            putVarint(polls, port + 1);
+            putVarint(polls, sender.id << 1 | (sender instanceof LanSegment ? 1 : 0));
+            putVarint(polls, frame.getMode().ordinal());
+            putVarint(polls, frame.getMessage());
+            putVarint(polls, frame.getCost());
+            putVarint(polls, frame.getTieBreaker());
+            putVarint(polls, frame.getFlags());
+            pollCount++;
+        }
+
+        private void writeIdle() {
+            if (idle == 0)
+                return;
+            out = room(out, 20);
+            putVarint(out, ref);
+            putVarint(out, idlePhase);
+            putVarint(out, 0);
+            putVarint(out, idle);
+            idle = 0;
+        }
+
+        private void flush(boolean all) {
+            if (out.position() < FLUSH && !all)
+                return;
+            out.flip();
+            append(out);
+            out.clear();
+        }
+
+        private void close() {
+            writeIdle();
+            flush(true);
+        }
+    }
+
+    /***
+     * Creates the file and starts recording every bridge
+     * @param file recording to write
+     * @param bridges bridges to record, each gets its track before the run
+     * @param lanSegments number of LAN segments, only checked by the replay
+     */
+    DeliveryRecorder(String file, Collection<Bridge> bridges, int lanSegments) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        int budget = 1;
+        for (Bridge bridge : bridges) {
+            budget = bridge.simulation.configurations.budget;
+            bridge.track = new Track(bridge);
+            bridge.frameQueue.trace(bridge.track);
+        }
+        // tracks append nothing before the first tick
+        final ByteBuffer header = ByteBuffer.allocate(20);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bridges.size()).putInt(lanSegments).putInt(budget).flip();
+        append(header);
+    }
+
+    private synchronized void append(ByteBuffer buffer) {
+        try {
+            bytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("can not write " + file, e);
+        }
+    }
+
+    /***
+     * Writes what is left of every track and the trailer, bridges must be stopped
+     * @param bridges recorded bridges
+     */
+    void close(Collection<Bridge> bridges) throws IOException {
+        long ticks = 0;
+        for (Bridge bridge : bridges) {
+            bridge.track.close();
+            ticks += bridge.track.ticks;
+        }
+        final ByteBuffer trailer = ByteBuffer.allocate(32);
+        putVarint(trailer, 0);
+        putVarlong(trailer, ticks);
+        trailer.putLong(TreeSummary.of(bridges).getFingerprint()).flip();
+        append(trailer);
+        channel.close();
+        System.out.println("recorded " + ticks + " ticks to " + file + ", " + bytes / 1024 + " KB");
+    }
+
+    /***
+     * @return buffer with at least this many bytes left, grown if needed
+     */
+    private static ByteBuffer room(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes)
+            return buffer;
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+        buffer.flip();
+        return grown.put(buffer);
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void putVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    static long getVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
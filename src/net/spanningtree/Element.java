@@ -1,46 +1,221 @@
 package net.spanningtree;
 
-
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Amir Razmjou
  * Fitzroy Nembhard on 11/26/14.
  */
 public abstract class Element {
-    private static final Random random = new Random(Configurations.seedNetwork);
-    // the only static value shared among classes
-    // this take cares of redundant portIds (MACs)
-    private static int lastPortId = 1;
+    // tick period of every element in milliseconds (virtual or wall clock)
+    static final int PERIOD = 20;
     final int id;
-    final BiMap<Integer, Element> ports = new HashBiMap<>();
+    final Simulation simulation;
+    final Convergence convergence;
+    final EventLog log;
+    final Metrics metrics;
+    // dense port tables, index is the local port number
+    Element[] neighbors = new Element[0];
+    // port ids (MACs) of local ports
+    int[] portIds = new int[0];
+    // local port number of the same link on the neighbor side, reverse index without hashing
+    int[] remotePorts = new int[0];
+    int portCount = 0;
+    // true for ports whose link is down, allocated on the first link failure
+    private boolean[] disabled;
 
     // incoming FIFO queue must by concurrent
-    final Queue<BridgeFrame> frameQueue = new ConcurrentLinkedDeque<>();
-    private boolean isAlive = true;
+    final Inbox frameQueue;
+    // lock-step mode only, frames received during a round wait here until the next one
+    private Inbox nextRoundQueue;
+    // written by the thread ticking or killing the element, read by any
+    private volatile boolean isAlive = true;
+    // cached getId(), ids are immutable
+    private String name;
+    // metrics only, written by the thread ticking this element
+    long ticks = 0;
+    long tickNanos = 0;
     private Timer timer;
+    private ScheduledFuture<?> task;
 
-    Element(int id) {
+    Element(int id, Simulation simulation) {
         this.id = id;
+        this.simulation = simulation;
+        this.convergence = simulation.convergence;
+        this.log = simulation.log;
+        this.metrics = simulation.metrics;
+        final Configurations configurations = simulation.configurations;
+        frameQueue = new Inbox(configurations.queueCapacity, configurations.queueOverflow,
+                configurations.queueStats, configurations.coalesce);
+    }
+
+    /***
+     * Sends frame out of a local port
+     * @param port local port number
+     * @param frame frame to send
+     */
+    void send(int port, BridgeFrame frame) {
+        if (disabled != null && disabled[port])
+            return;
+        neighbors[port].enqueue(remotePorts[port], frame);
+    }
+
+    /***
+     * Sends the same shared frame out of all ports but one
+     * @param frame frame to send
+     * @param exceptPort local port to skip or -1 for none
+     */
+    void broadcast(BridgeFrame frame, int exceptPort) {
+        for (int port = 0; port < portCount; port++) {
+            if (port != exceptPort)
+                send(port, frame);
+        }
+    }
+
+    /***
+     * Receives frame
+     * @param port local port number frame arrives at
+     * @param frame received frame
+     */
+    void enqueue(int port, BridgeFrame frame) {
+        convergence.sent();
+        if (metrics.enabled)
+            metrics.delivered(frame, this);
+        if (nextRoundQueue != null)
+            nextRoundQueue.offer(frame, port);
+        else
+            release(frameQueue.offer(frame, port));
+    }
+
+    /***
+     * Switches element into double-buffered lock-step mode
+     */
+    void bufferRounds() {
+        nextRoundQueue = new Inbox();
+    }
+
+    /***
+     * Makes frames received during the last round visible to tick. Frames are ordered
+     * by the port, that is the neighbor, they came from so that the result doesn't
+     * depend on which thread delivered first, frames of the same neighbor keep their
+     * sending order.
+     */
+    void flipRound() {
+        release(frameQueue.drainSortedByPort(nextRoundQueue));
+    }
+
+    /***
+     * Drops all received frames of an element which stops for good
+     */
+    void discardFrames() {
+        int dropped = 0;
+        while (frameQueue.poll() != null) {
+            dropped++;
+        }
+        while (nextRoundQueue != null && nextRoundQueue.poll() != null) {
+            dropped++;
+        }
+        release(dropped);
     }
 
-    void enqueue(Element sender, BridgeFrame frame) {
-        frameQueue.offer(frame);
+    /***
+     * Dropped frames are not in flight anymore
+     * @param dropped number of frames lost to inbox overflow
+     */
+    private void release(int dropped) {
+        for (int i = 0; i < dropped; i++) {
+            convergence.consumed();
+        }
     }
 
-    public void addPort(Element element) {
-        ports.put(lastPortId++, element);
+    /***
+     * Connects two elements with a link, each one gets a new port
+     * @param a first element
+     * @param b second element
+     */
+    static void connect(Element a, Element b) {
+        final int portA = a.addPort(b);
+        final int portB = b.addPort(a);
+        a.remotePorts[portA] = portB;
+        b.remotePorts[portB] = portA;
+    }
+
+    private int addPort(Element element) {
+        if (portCount == neighbors.length) {
+            final int capacity = Math.max(2, portCount * 2);
+            neighbors = Arrays.copyOf(neighbors, capacity);
+            portIds = Arrays.copyOf(portIds, capacity);
+            remotePorts = Arrays.copyOf(remotePorts, capacity);
+            growPorts(capacity);
+        }
+        neighbors[portCount] = element;
+        portIds[portCount] = simulation.nextPortId();
+        return portCount++;
+    }
+
+    /***
+     * @param port local port number
+     * @return false if the link of port is down
+     */
+    boolean isPortUp(int port) {
+        return disabled == null || !disabled[port];
+    }
+
+    /***
+     * Takes the link of a local port down or brings it back up on both of its ends,
+     * the port keeps its number and id
+     * @param port local port number
+     * @param up new link state
+     */
+    void setLinkUp(int port, boolean up) {
+        setPortUp(port, up);
+        neighbors[port].setPortUp(remotePorts[port], up);
+    }
+
+    private void setPortUp(int port, boolean up) {
+        if (disabled == null)
+            disabled = new boolean[neighbors.length];
+        disabled[port] = !up;
+    }
+
+    /***
+     * Link of a local port went down or came back up, lets LAN segments tell their
+     * other bridges
+     * @param port local port number
+     * @param designatedLost true if the bridge on the other end was designated for this element
+     */
+    void linkChanged(int port, boolean designatedLost) {
+    }
+
+    /***
+     * Installs complete port tables at once, used when loading a saved network
+     * @param neighbors element at the other end of every port
+     * @param portIds port id (MAC) of every port
+     * @param remotePorts local port number of every link on the neighbor side
+     */
+    void setPorts(Element[] neighbors, int[] portIds, int[] remotePorts) {
+        this.neighbors = neighbors;
+        this.portIds = portIds;
+        this.remotePorts = remotePorts;
+        portCount = neighbors.length;
+        growPorts(portCount);
+    }
+
+    /***
+     * Lets subclasses grow their own per port tables
+     * @param capacity new capacity of port tables
+     */
+    void growPorts(int capacity) {
     }
 
     @Override
     public String toString() {
         String s = "[" + getId() + "] ";
-        for (Element element : ports.values()) {
-            s += element.getId() + " ";
+        for (int port = 0; port < portCount; port++) {
+            s += neighbors[port].getId() + " ";
         }
         return s;
     }
@@ -48,7 +223,9 @@ public abstract class Element {
     abstract String getAbbreviation();
 
     public String getId() {
-        return getAbbreviation() + id;
+        if (name == null)
+            name = getAbbreviation() + id;
+        return name;
     }
 
     abstract void tick();
@@ -57,19 +234,51 @@ public abstract class Element {
         TimerTask timerTask = new TimerTask() {
             @Override
             public void run() {
-                tick();
+                guardedTick();
             }
         };
         timer = new Timer("Timer");
-        int period = 20;
+        timer.scheduleAtFixedRate(timerTask, startDelay(), PERIOD);
+    }
+
+    /***
+     * Runs tick loop on a shared executor instead of a dedicated timer thread,
+     * the executor parks the element between periods
+     * @param executor shared scheduler
+     */
+    public void start(ScheduledExecutorService executor) {
+        task = executor.scheduleAtFixedRate(this::guardedTick, startDelay(), PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Tick of the wall clock engines, whose schedulers silently drop a task that
+     * throws. A failing tick stops the element and aborts the run instead of leaving
+     * it waiting for a bridge which never stops.
+     */
+    private void guardedTick() {
+        try {
+            tick();
+        } catch (RuntimeException | Error e) {
+            stop();
+            convergence.abort(this, e);
+        }
+    }
 
-        // desynchronization tasks starting time
-        int delay = random.nextInt(period);
-        timer.scheduleAtFixedRate(timerTask, delay, period);
+    /***
+     * Desynchronizes elements starting time, every engine must draw its offsets
+     * from here so a given seed results in the same start offsets
+     * @return start offset in milliseconds within a single period
+     */
+    int startDelay() {
+        return simulation.startDelay();
     }
 
     protected void stop() {
-        timer.cancel();
+        if (timer != null)
+            timer.cancel();
+        if (task != null)
+            task.cancel(false);
         isAlive = false;
     }
 
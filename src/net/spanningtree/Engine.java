@@ -0,0 +1,88 @@
+package net.spanningtree;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/***
+ * Pluggable simulation engine, decides how and when elements tick.
+ */
+abstract class Engine {
+    // topology changes during the run, only applied by the virtual time engines
+    FailureInjector failures;
+    // no statistics at the end of run, they would cover the whole process when a
+    // sweep runs many simulations at once
+    boolean quiet = false;
+
+    /***
+     * Runs LAN segments and bridges until all bridges are done
+     * @param bridges bridges to run
+     * @param lanSegments LAN segments to run
+     * @param convergence convergence detector shared by all elements
+     */
+    abstract void run(Collection<Bridge> bridges, Collection<LanSegment> lanSegments,
+                      Convergence convergence);
+
+    /***
+     * @param elements elements to start
+     * @return elements ordered by id, start offsets are drawn in this order so the
+     * seed alone decides them whatever order the collection iterates in
+     */
+    static <T extends Element> List<T> startOrder(Collection<T> elements) {
+        final List<T> ordered = new ArrayList<>(elements);
+        ordered.sort(Comparator.comparingInt(e -> e.id));
+        return ordered;
+    }
+
+    /***
+     * Prints thread, CPU and GC usage of a run so engines can be compared
+     * @param started System.nanoTime() when run started
+     */
+    void printUsage(long started) {
+        if (quiet)
+            return;
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        String cpu = "n/a";
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            cpu = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() / 1000000 + " ms";
+        }
+        long collections = 0;
+        long collectionTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += gc.getCollectionCount();
+            collectionTime += gc.getCollectionTime();
+        }
+        System.out.println("wall time: " + (System.nanoTime() - started) / 1000000 + " ms" +
+                ", process cpu time: " + cpu +
+                ", peak threads: " + threads.getPeakThreadCount() +
+                ", gc: " + collections + " collections in " + collectionTime + " ms");
+    }
+
+    /***
+     * Creates engine by its command line name
+     * @param name engine name
+     * @param threads number of threads for pool and lockstep engines
+     * @return engine
+     * @throws IllegalArgumentException if name is unknown
+     */
+    static Engine create(String name, int threads) {
+        switch (name) {
+            case "timer":
+                return new TimerEngine();
+            case "event":
+                return new EventEngine();
+            case "pool":
+                return new PoolEngine(threads);
+            case "lockstep":
+                return new LockStepEngine(threads);
+            default:
+                throw new IllegalArgumentException("Unknown engine " + name);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.spanningtree;
+
+import java.util.Collection;
+import java.util.PriorityQueue;
+
+/***
+ * Discrete event scheduler, a single thread pops the earliest event from a time
+ * ordered queue and ticks its element in virtual time. Elements keep the same start
+ * offsets and period as timer mode but run as fast as the CPU allows.
+ */
+class EventEngine extends Engine {
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    /***
+     * Scheduled tick of an element, events are reused after each tick
+     */
+    private static final class Event implements Comparable<Event> {
+        final Element element;
+        long time;
+        long sequence;
+
+        Event(Element element, long time) {
+            this.element = element;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            if (time != o.time)
+                return Long.compare(time, o.time);
+            // same time ticks run in scheduling order
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+
+    @Override
+    void run(Collection<Bridge> bridges, Collection<LanSegment> lanSegments,
+             Convergence convergence) {
+        convergence.start(() -> now);
+        // same start order as timer mode so seeds give the same offsets
+        startOrder(lanSegments).forEach(this::schedule);
+        startOrder(bridges).forEach(this::schedule);
+
+        int running = bridges.size();
+        long started = System.nanoTime();
+        Event event;
+        while (running > 0 && (event = events.poll()) != null) {
+            now = event.time;
+            if (failures != null)
+                failures.apply();
+            final Element element = event.element;
+            // bridges may have failed since they were scheduled
+            if (element.isAlive())
+                element.tick();
+            if (element.isAlive()) {
+                event.time += Element.PERIOD;
+                event.sequence = sequence++;
+                events.offer(event);
+            } else if (element instanceof Bridge) {
+                running--;
+            }
+        }
+
+        lanSegments.forEach(Element::stop);
+        if (!quiet)
+            System.out.println("virtual time: " + now + " ms");
+        printUsage(started);
+    }
+
+    private void schedule(Element element) {
+        final Event event = new Event(element, element.startDelay());
+        event.sequence = sequence++;
+        events.offer(event);
+    }
+}
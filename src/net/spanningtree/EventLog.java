@@ -0,0 +1,200 @@
+package net.spanningtree;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * Structured event log. Ticking threads write fixed size records into a lock-free
+ * ring buffer and a background thread drains them either to a compact binary file
+ * or as text to stdout, so no ticking thread ever waits on the stdout lock.
+ * Records which find the ring full are dropped and counted rather than waited for.
+ * When the log is off call sites skip it with a single field check.
+ */
+class EventLog {
+    enum Level {OFF, TEXT, BINARY}
+
+    // record kinds, LINK records carry neighbor id as cost and its abbreviation as value
+    static final byte ADVERTISE_ROOT = 0;
+    static final byte ROOT_CHANGED = 1;
+    static final byte COST_CHANGED = 2;
+    static final byte ADVERTISE_DP = 3;
+    static final byte DP_RECEIVED = 4;
+    static final byte PORT_STATE = 5;
+    static final byte LINK = 6;
+
+    static final int MAGIC = 0x5354504c; // "STPL"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 32;
+    // longs per record in the ring
+    private static final int SLOT = RECORD_SIZE / 8;
+    private static final int CAPACITY = 1 << 16;
+
+    final boolean enabled;
+    private final Level level;
+    private final long[] ring;
+    // sequence + 1 of the record published in each slot
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long drained = 0;
+    private volatile boolean closing = false;
+    private final FileChannel channel;
+    private final Writer text;
+    private final Thread drainer;
+
+    /***
+     * @param level OFF, TEXT to stdout or BINARY to file
+     * @param file binary log file, only used for BINARY level
+     */
+    EventLog(Level level, String file) throws IOException {
+        this.level = level;
+        this.enabled = level != Level.OFF;
+        if (!enabled) {
+            ring = null;
+            published = null;
+            channel = null;
+            text = null;
+            drainer = null;
+            return;
+        }
+        ring = new long[CAPACITY * SLOT];
+        published = new AtomicLongArray(CAPACITY);
+        if (level == Level.BINARY) {
+            channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            final ByteBuffer header = ByteBuffer.allocate(12);
+            header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            text = null;
+        } else {
+            channel = null;
+            text = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        }
+        drainer = new Thread(this::drain, "EventLog");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // disabled log, it has no state so all simulations share it
+    static final EventLog OFF = new EventLog();
+
+    /***
+     * Disabled log
+     */
+    private EventLog() {
+        level = Level.OFF;
+        enabled = false;
+        ring = null;
+        published = null;
+        channel = null;
+        text = null;
+        drainer = null;
+    }
+
+    /***
+     * Appends a record, drops it if the drainer is a whole ring behind
+     * @param kind record kind
+     * @param element element the record is about
+     * @param tick element local tick
+     * @param state bridge state ordinal or 0
+     * @param status port status ordinal or 0
+     * @param rootId root id known by element
+     * @param cost cost to root
+     * @param port port the record is about
+     * @param value kind specific value
+     */
+    void record(byte kind, Element element, long tick, int state, int status,
+                int rootId, int cost, int port, int value) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - drained >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        final int slot = (int) (sequence & (CAPACITY - 1));
+        final int i = slot * SLOT;
+        ring[i] = tick;
+        ring[i + 1] = ((long) element.id << 32) | ((kind & 0xff) << 24) |
+                ((element.getAbbreviation().charAt(0) & 0xff) << 16) |
+                ((state & 0xff) << 8) | (status & 0xff);
+        ring[i + 2] = ((long) rootId << 32) | (cost & 0xffffffffL);
+        ring[i + 3] = ((long) port << 32) | (value & 0xffffffffL);
+        // release, the drainer reads the slot only after seeing this
+        published.lazySet(slot, sequence + 1);
+    }
+
+    private void drain() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 2048);
+        final StringBuilder line = new StringBuilder();
+        long next = 0;
+        try {
+            while (true) {
+                final int slot = (int) (next & (CAPACITY - 1));
+                if (published.get(slot) != next + 1) {
+                    flush(buffer);
+                    if (closing && next == claimed.get())
+                        break;
+                    LockSupport.parkNanos(100000);
+                    continue;
+                }
+                final int i = slot * SLOT;
+                buffer.putLong(ring[i]).putLong(ring[i + 1]).putLong(ring[i + 2]).putLong(ring[i + 3]);
+                drained = ++next;
+                if (level == Level.TEXT) {
+                    buffer.flip();
+                    line.setLength(0);
+                    EventLogDecoder.appendText(buffer, line);
+                    text.write(line.append('\n').toString());
+                    buffer.clear();
+                } else if (!buffer.hasRemaining()) {
+                    flush(buffer);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        if (level == Level.TEXT) {
+            text.flush();
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /***
+     * Waits for all records to be drained and closes the log
+     */
+    void close() throws IOException {
+        if (!enabled)
+            return;
+        closing = true;
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null)
+            channel.close();
+        if (dropped.get() > 0)
+            System.out.println("event log: " + dropped.get() + " records dropped, the log fell behind");
+    }
+}
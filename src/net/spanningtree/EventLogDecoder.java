@@ -0,0 +1,143 @@
+package net.spanningtree;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/***
+ * Offline decoder of binary event logs into text or CSV
+ * usage: java net.spanningtree.EventLogDecoder file [--csv]
+ */
+class EventLogDecoder {
+    private static final String[] KINDS = {"ADVERTISE_ROOT", "ROOT_CHANGED", "COST_CHANGED",
+            "ADVERTISE_DP", "DP_RECEIVED", "PORT_STATE", "LINK"};
+    private static final String CSV_HEADER = "tick,element,kind,state,status,root,cost,port,value";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: java net.spanningtree.EventLogDecoder file [--csv]");
+            return;
+        }
+        final boolean csv = args.length > 1 && args[1].contains("--csv");
+
+        try (FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(12);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < 12 || header.getInt() != EventLog.MAGIC) {
+                System.out.println(args[0] + " is not an event log");
+                return;
+            }
+            if (header.getInt() != EventLog.VERSION || header.getInt() != EventLog.RECORD_SIZE) {
+                System.out.println(args[0] + " has an unsupported event log version");
+                return;
+            }
+
+            final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(EventLog.RECORD_SIZE * 4096);
+            final StringBuilder line = new StringBuilder();
+            if (csv)
+                out.write(CSV_HEADER + "\n");
+            // a truncated record at the end of a log is ignored
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= EventLog.RECORD_SIZE) {
+                    line.setLength(0);
+                    if (csv)
+                        appendCsv(buffer, line);
+                    else
+                        appendText(buffer, line);
+                    out.write(line.append('\n').toString());
+                }
+                buffer.compact();
+            }
+            out.flush();
+        }
+    }
+
+    /***
+     * Decodes a single record in the same wording simulation used to print
+     * @param record buffer positioned at record, position is moved past it
+     * @param line output
+     */
+    static void appendText(ByteBuffer record, StringBuilder line) {
+        final long tick = record.getLong();
+        final long header = record.getLong();
+        final long root = record.getLong();
+        final long portValue = record.getLong();
+        final int rootId = (int) (root >>> 32);
+        final int cost = (int) root;
+        final int port = (int) (portValue >>> 32);
+        final int value = (int) portValue;
+
+        appendElement(header, line);
+        line.append(" t:").append(tick);
+        switch (kind(header)) {
+            case EventLog.ADVERTISE_ROOT:
+                line.append(" QS:").append(value).append(" Advertising R: ").append(rootId);
+                break;
+            case EventLog.ROOT_CHANGED:
+                line.append(" QS:").append(value).append(" Changing root ID to: ").append(rootId);
+                break;
+            case EventLog.COST_CHANGED:
+                line.append(": cost to root is ").append(cost).append(" from ").append(port);
+                break;
+            case EventLog.ADVERTISE_DP:
+                line.append(" advertising DP with cost ").append(cost).append(" on port ").append(port);
+                break;
+            case EventLog.DP_RECEIVED:
+                line.append(" got cost of ").append(value).append(" on port ").append(port)
+                        .append(" but I already got ").append(cost);
+                break;
+            case EventLog.PORT_STATE:
+                line.append(" port ").append(port).append(' ')
+                        .append(Bridge.PortStatus.values()[(int) header & 0xff]);
+                break;
+            case EventLog.LINK:
+                line.append(" port ").append(port).append(" to ")
+                        .append((char) value).append(cost);
+                break;
+            default:
+                line.append(" unknown record ").append(kind(header));
+        }
+    }
+
+    /***
+     * Decodes a single record as CSV row
+     * @param record buffer positioned at record, position is moved past it
+     * @param line output
+     */
+    static void appendCsv(ByteBuffer record, StringBuilder line) {
+        final long tick = record.getLong();
+        final long header = record.getLong();
+        final long root = record.getLong();
+        final long portValue = record.getLong();
+        line.append(tick).append(',');
+        appendElement(header, line);
+        final int kind = kind(header);
+        line.append(',').append(kind < KINDS.length ? KINDS[kind] : String.valueOf(kind))
+                .append(',');
+        if (kind != EventLog.LINK)
+            line.append(Bridge.States.values()[(int) (header >>> 8) & 0xff]);
+        line.append(',');
+        if (kind == EventLog.PORT_STATE)
+            line.append(Bridge.PortStatus.values()[(int) header & 0xff]);
+        line.append(',').append((int) (root >>> 32))
+                .append(',').append((int) root)
+                .append(',').append((int) (portValue >>> 32))
+                .append(',').append((int) portValue);
+    }
+
+    private static int kind(long header) {
+        return (int) (header >>> 24) & 0xff;
+    }
+
+    private static void appendElement(long header, StringBuilder line) {
+        line.append((char) ((header >>> 16) & 0xff)).append((int) (header >>> 32));
+    }
+}
@@ -0,0 +1,135 @@
+package net.spanningtree;
+
+import java.util.*;
+
+/***
+ * Topology changes at given times of a run: a link between a bridge and a LAN
+ * segment goes down or comes back up, or a bridge fails with all of its links.
+ * A change is applied once its time has come and the network has been converged
+ * for SETTLE ms, so every bridge is listening again. Changes of the same time are
+ * applied together and reconverge as a single epoch.
+ * spec: comma separated changes, time:down:B3-N7, time:up:B3-N7 or time:kill:B3,
+ * times in milliseconds of virtual time
+ */
+class FailureInjector {
+    // every element ticks at least once after convergence before the next change
+    static final int SETTLE = 2 * Element.PERIOD;
+
+    private static final class Change {
+        final long time;
+        final String kind;
+        final Bridge bridge;
+        // local port of bridge, unused by kill
+        final int port;
+        final String label;
+
+        Change(long time, String kind, Bridge bridge, int port, String label) {
+            this.time = time;
+            this.kind = kind;
+            this.bridge = bridge;
+            this.port = port;
+            this.label = label;
+        }
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+    private final Convergence convergence;
+    private int next = 0;
+
+    /***
+     * @param spec changes to apply
+     * @param bridges bridges of network
+     * @param lanSegments LAN segments of network
+     * @param convergence convergence detector of all elements
+     * @throws IllegalArgumentException if spec is malformed or names an unknown element or link
+     */
+    FailureInjector(String spec, Map<Integer, Bridge> bridges, Collection<LanSegment> lanSegments,
+                    Convergence convergence) {
+        this.convergence = convergence;
+        final Map<Integer, LanSegment> segments = new HashMap<>();
+        for (LanSegment lanSegment : lanSegments) {
+            segments.put(lanSegment.id, lanSegment);
+        }
+        for (String item : spec.split(",")) {
+            final String[] fields = item.trim().split(":");
+            if (fields.length != 3)
+                throw new IllegalArgumentException("malformed change " + item);
+            final long time = Long.parseLong(fields[0]);
+            final String kind = fields[1].toLowerCase();
+            final String[] names = fields[2].split("-");
+            final Bridge bridge = bridges.get(parseId(names[0], 'B'));
+            if (bridge == null)
+                throw new IllegalArgumentException("unknown bridge " + names[0]);
+            switch (kind) {
+                case "kill":
+                    changes.add(new Change(time, kind, bridge, -1, bridge.getId() + " killed"));
+                    break;
+                case "down":
+                case "up":
+                    if (names.length != 2)
+                        throw new IllegalArgumentException("link expected instead of " + fields[2]);
+                    final LanSegment lanSegment = segments.get(parseId(names[1], 'N'));
+                    final int port = lanSegment == null ? -1 : portTo(bridge, lanSegment);
+                    if (port < 0)
+                        throw new IllegalArgumentException("unknown link " + fields[2]);
+                    changes.add(new Change(time, kind, bridge, port, fields[2] + " " + kind));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown change " + fields[1]);
+            }
+        }
+        changes.sort(Comparator.comparingLong(c -> c.time));
+        convergence.expectChanges((int) changes.stream().mapToLong(c -> c.time).distinct().count());
+    }
+
+    private static int parseId(String name, char kind) {
+        if (name.isEmpty() || name.charAt(0) != kind)
+            throw new IllegalArgumentException("element " + name + " must start with " + kind);
+        return Integer.parseInt(name.substring(1));
+    }
+
+    private static int portTo(Bridge bridge, LanSegment lanSegment) {
+        for (int port = 0; port < bridge.portCount; port++) {
+            if (bridge.neighbors[port] == lanSegment)
+                return port;
+        }
+        return -1;
+    }
+
+    /***
+     * Applies the next changes if they are due, called by the engine between ticks
+     */
+    void apply() {
+        if (next == changes.size())
+            return;
+        final long now = convergence.now();
+        final long due = changes.get(next).time;
+        if (now < due || !convergence.reached(Convergence.Phase.DONE) || now < convergence.getDoneAt() + SETTLE)
+            return;
+
+        int last = next;
+        final StringJoiner label = new StringJoiner(", ");
+        while (last < changes.size() && changes.get(last).time == due) {
+            label.add(changes.get(last++).label);
+        }
+        convergence.beginChange(label.toString());
+        for (; next < last; next++) {
+            final Change change = changes.get(next);
+            // a failed bridge stays down
+            if (!change.bridge.isAlive())
+                continue;
+            switch (change.kind) {
+                case "down":
+                    change.bridge.linkDown(change.port);
+                    break;
+                case "up":
+                    change.bridge.linkUp(change.port);
+                    break;
+                case "kill":
+                    change.bridge.kill();
+                    break;
+            }
+        }
+        convergence.endChange();
+    }
+}
@@ -0,0 +1,44 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/***
+ * k-ary fat-tree (folded Clos) of switches only: k pods of k/2 edge and k/2
+ * aggregation switches fully meshed inside the pod and (k/2)^2 core switches, each
+ * aggregation switch uplinks to k/2 of them. The largest even k whose 5k^2/4
+ * switches fit in the requested number of nodes is used, so at least MIN_NODES
+ * are needed for k = 2. Deterministic, the seed and density are not used.
+ */
+class FatTreeTopology extends Topology {
+    // switches of the smallest fat-tree, k = 2
+    static final int MIN_NODES = 5;
+
+    @Override
+    UndirectedGraph<Integer, DefaultEdge> generate(int nodes, double density, long seed) {
+        if (nodes < MIN_NODES)
+            throw new IllegalArgumentException("fat-tree needs at least " + MIN_NODES + " nodes");
+        int k = 2;
+        while (5 * (k + 2) * (k + 2) / 4 <= nodes) {
+            k += 2;
+        }
+        final int half = k / 2;
+        final int cores = half * half;
+        final UndirectedGraph<Integer, DefaultEdge> g = emptyGraph(cores + k * k);
+
+        // vertices: cores first, then per pod its aggregation and edge switches
+        for (int pod = 0; pod < k; pod++) {
+            final int aggregation = cores + pod * k;
+            final int edge = aggregation + half;
+            for (int a = 0; a < half; a++) {
+                for (int e = 0; e < half; e++) {
+                    g.addEdge(aggregation + a, edge + e);
+                }
+                for (int c = 0; c < half; c++) {
+                    g.addEdge(aggregation + a, a * half + c);
+                }
+            }
+        }
+        return g;
+    }
+}
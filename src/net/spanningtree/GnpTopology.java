@@ -0,0 +1,78 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/***
+ * Random G(n,p) graph in O(n + m) using geometric skipping (Batagelj and Brandes),
+ * instead of drawing a number per pair it draws the gap to the next edge.
+ * Rows of the adjacency triangle are split into a fixed number of chunks which are
+ * sampled in parallel, each with its own random stream split off the seed, so the
+ * graph only depends on the seed and not on the number of cores.
+ */
+class GnpTopology extends Topology {
+    private static final int CHUNKS = 64;
+
+    @Override
+    UndirectedGraph<Integer, DefaultEdge> generate(int nodes, double density, long seed) {
+        // legacy generator draws each pair twice, keep the same edge probability
+        final double p = 1 - (1 - density) * (1 - density);
+        final UndirectedGraph<Integer, DefaultEdge> g = emptyGraph(nodes);
+        if (p <= 0)
+            return g;
+
+        // chunk boundaries balanced by number of pairs, row v has v pairs
+        final int[] bounds = new int[CHUNKS + 1];
+        for (int c = 0; c <= CHUNKS; c++) {
+            bounds[c] = (int) Math.round(nodes * Math.sqrt((double) c / CHUNKS));
+        }
+        final SplittableRandom root = new SplittableRandom(seed);
+        final SplittableRandom[] randoms = new SplittableRandom[CHUNKS];
+        for (int c = 0; c < CHUNKS; c++) {
+            randoms[c] = root.split();
+        }
+
+        final long[][] edges = IntStream.range(0, CHUNKS)
+                .parallel()
+                .mapToObj(c -> sample(bounds[c], bounds[c + 1], p, randoms[c]))
+                .toArray(long[][]::new);
+
+        for (long[] chunk : edges) {
+            for (int i = 1; i <= chunk[0]; i++) {
+                g.addEdge((int) (chunk[i] >>> 32), (int) chunk[i]);
+            }
+        }
+        return g;
+    }
+
+    /***
+     * Samples edges (v, w) with w < v for rows v in [from, to)
+     * @return packed edges, first element is the edge count
+     */
+    private static long[] sample(int from, int to, double p, SplittableRandom random) {
+        final double logQ = Math.log(1 - p);
+        final long pairs = ((long) to * (to - 1) - (long) from * (from - 1)) / 2;
+        long[] edges = new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, pairs * p * 1.1 + 16))];
+        int count = 0;
+        long v = from;
+        long w = -1;
+        while (v < to) {
+            w += p >= 1 ? 1 : 1 + (long) Math.floor(Math.log(1 - random.nextDouble()) / logQ);
+            while (w >= v && v < to) {
+                w -= v;
+                v++;
+            }
+            if (v < to) {
+                if (++count == edges.length)
+                    edges = Arrays.copyOf(edges, edges.length * 2);
+                edges[count] = (v << 32) | w;
+            }
+        }
+        edges[0] = count;
+        return edges;
+    }
+}
@@ -0,0 +1,328 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/***
+ * Linear memory statistics of concept graph, every statistic is computed on its own
+ * over a compressed adjacency (CSR) copy of the graph using BFS and union-find.
+ * Distances ignore unreachable pairs, the diameter of a disconnected graph is the
+ * largest diameter of its components.
+ */
+class GraphDiagnostics {
+    enum Statistic {GRAPH, TREE, CONNECTIVITY, DEGREE, DIAMETER, ESTIMATE}
+
+    // sources of multi-source estimate
+    private static final int ESTIMATE_SOURCES = 16;
+
+    private final int n;
+    private final long edges;
+    // neighbors of vertex v are targets[offsets[v]] to targets[offsets[v + 1] - 1]
+    private final int[] offsets;
+    private final int[] targets;
+    // union-find parents, computed on first use
+    private int[] components;
+    // BFS runs of last diameter computation
+    private int sweeps;
+
+    /***
+     * @param g concept graph
+     */
+    GraphDiagnostics(UndirectedGraph<Integer, DefaultEdge> g) {
+        // dense indexes for vertex ids
+        final int[] ids = g.vertexSet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        n = ids.length;
+        edges = g.edgeSet().size();
+        offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + g.degreeOf(ids[v]);
+        }
+        targets = new int[offsets[n]];
+        final int[] next = Arrays.copyOf(offsets, n);
+        for (DefaultEdge e : g.edgeSet()) {
+            final int a = Arrays.binarySearch(ids, g.getEdgeSource(e));
+            final int b = Arrays.binarySearch(ids, g.getEdgeTarget(e));
+            targets[next[a]++] = b;
+            targets[next[b]++] = a;
+        }
+    }
+
+    /***
+     * Prints the requested statistics with the time each one took
+     * @param g concept graph, only used for GRAPH statistic
+     * @param statistics statistics to print
+     * @param seed random seed of estimate sources
+     */
+    static void print(UndirectedGraph<Integer, DefaultEdge> g, Iterable<Statistic> statistics, long seed) {
+        GraphDiagnostics diagnostics = null;
+        for (Statistic statistic : statistics) {
+            if (statistic == Statistic.GRAPH) {
+                System.out.println("graph: " + g.toString());
+                continue;
+            }
+            if (diagnostics == null)
+                diagnostics = new GraphDiagnostics(g);
+            final long started = System.nanoTime();
+            switch (statistic) {
+                case TREE:
+                    if (diagnostics.isTree()) {
+                        System.out.println("WARNING: Generated graph is already a tree, try changing seed numbers or node numbers.");
+                    }
+                    break;
+                case CONNECTIVITY:
+                    final int count = diagnostics.componentCount();
+                    if (count > 1) {
+                        System.out.println("WARNING: Graph is not connected. , try changing seed numbers or node numbers.");
+                    }
+                    System.out.println("connected components: " + count + " in " + elapsed(started));
+                    break;
+                case DEGREE:
+                    System.out.println("degree distribution: " + diagnostics.degreeDistribution());
+                    break;
+                case DIAMETER:
+                    final int diameter = diagnostics.diameter();
+                    System.out.println("graph diameter: " + diameter + " (exact, " + diagnostics.sweeps +
+                            " BFS in " + elapsed(started) + ")");
+                    break;
+                case ESTIMATE:
+                    final int[] bounds = diagnostics.estimateDiameter(ESTIMATE_SOURCES, seed);
+                    System.out.println("graph diameter estimate: between " + bounds[0] + " and " + bounds[1] +
+                            " (" + diagnostics.sweeps + " BFS in " + elapsed(started) + ")");
+                    break;
+            }
+        }
+    }
+
+    private static String elapsed(long started) {
+        return (System.nanoTime() - started) / 1000000 + " ms";
+    }
+
+    /***
+     * @return true if graph is connected and has no cycle
+     */
+    boolean isTree() {
+        return edges == n - 1 && componentCount() == 1;
+    }
+
+    /***
+     * Union-find over all edges with path halving and union by size
+     * @return number of connected components
+     */
+    int componentCount() {
+        final int[] parents = components();
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            if (parents[v] == v)
+                count++;
+        }
+        return count;
+    }
+
+    private int[] components() {
+        if (components != null)
+            return components;
+        final int[] parents = new int[n];
+        final int[] sizes = new int[n];
+        for (int v = 0; v < n; v++) {
+            parents[v] = v;
+            sizes[v] = 1;
+        }
+        for (int v = 0; v < n; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int a = find(parents, v);
+                int b = find(parents, targets[i]);
+                if (a == b)
+                    continue;
+                if (sizes[a] < sizes[b]) {
+                    final int t = a;
+                    a = b;
+                    b = t;
+                }
+                parents[b] = a;
+                sizes[a] += sizes[b];
+            }
+        }
+        // flatten so every vertex points at its root
+        for (int v = 0; v < n; v++) {
+            parents[v] = find(parents, v);
+        }
+        return components = parents;
+    }
+
+    private static int find(int[] parents, int v) {
+        while (parents[v] != v) {
+            parents[v] = parents[parents[v]];
+            v = parents[v];
+        }
+        return v;
+    }
+
+    /***
+     * @return number of bridges per degree
+     */
+    Map<Integer, Long> degreeDistribution() {
+        final Map<Integer, Long> distribution = new TreeMap<>();
+        for (int v = 0; v < n; v++) {
+            distribution.merge(offsets[v + 1] - offsets[v], 1L, Long::sum);
+        }
+        return distribution;
+    }
+
+    /***
+     * Exact diameter with iFUB (Crescenzi et al.). A double sweep picks the middle
+     * of a long path as start u, then eccentricities are computed for vertices from
+     * the farthest BFS level of u inwards. Once the best eccentricity found reaches
+     * twice the current level no remaining pair can be farther apart, which typically
+     * takes a handful of BFS instead of n.
+     * @return largest finite distance between two bridges
+     */
+    int diameter() {
+        sweeps = 0;
+        final int[] parents = components();
+        final int[] distance = new int[n];
+        final int[] order = new int[n];
+        final int[] previous = new int[n];
+        Arrays.fill(distance, -1);
+        // highest degree vertex of every component
+        final int[] highest = new int[n];
+        Arrays.fill(highest, -1);
+        for (int v = 0; v < n; v++) {
+            final int root = parents[v];
+            if (highest[root] < 0 || degree(v) > degree(highest[root]))
+                highest[root] = v;
+        }
+        int diameter = 0;
+        for (int root = 0; root < n; root++) {
+            if (parents[root] != root || degree(highest[root]) == 0)
+                continue;
+            final int r = highest[root];
+            final int a = order[bfs(r, distance, order, null) - 1];
+            final int size = bfs(a, distance, order, previous);
+            final int b = order[size - 1];
+            int lower = distance[b];
+            // middle of path from a to b
+            int u = b;
+            for (int steps = distance[b] / 2; steps > 0; steps--) {
+                u = previous[u];
+            }
+
+            bfs(u, distance, order, null);
+            final int[] levels = Arrays.copyOf(distance, n);
+            final int[] byLevel = Arrays.copyOf(order, size);
+            int i = size - 1;
+            int level = levels[byLevel[i]];
+            lower = Math.max(lower, level);
+            // pairs within the remaining levels are at most 2 * level apart
+            while (level > 0 && lower < 2 * level) {
+                // eccentricities of all vertices on this level
+                for (; i >= 0 && levels[byLevel[i]] == level; i--) {
+                    final int count = bfs(byLevel[i], distance, order, null);
+                    lower = Math.max(lower, distance[order[count - 1]]);
+                }
+                level--;
+            }
+            diameter = Math.max(diameter, lower);
+        }
+        return diameter;
+    }
+
+    /***
+     * Multi-source estimate for graphs too large for exact diameter. BFS from the
+     * highest degree vertex, the ends of a double sweep and random vertices run in
+     * parallel, the largest eccentricity found is a lower bound and twice the
+     * smallest one an upper bound of the diameter of the largest component.
+     * @param sources number of BFS sources
+     * @param seed random seed of source choice
+     * @return lower and upper bound
+     */
+    int[] estimateDiameter(int sources, long seed) {
+        final int[] parents = components();
+        final int[] sizes = new int[n];
+        int root = 0;
+        for (int v = 0; v < n; v++) {
+            if (++sizes[parents[v]] > sizes[root])
+                root = parents[v];
+        }
+        final int component = root;
+        final int[] members = IntStream.range(0, n).filter(v -> parents[v] == component).toArray();
+
+        final int[] chosen = new int[Math.min(sources, members.length)];
+        int r = members[0];
+        for (int v : members) {
+            if (degree(v) > degree(r))
+                r = v;
+        }
+        chosen[0] = r;
+        final int[] distance = new int[n];
+        final int[] order = new int[n];
+        Arrays.fill(distance, -1);
+        if (chosen.length > 1)
+            chosen[1] = order[bfs(r, distance, order, null) - 1];
+        final SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 2; i < chosen.length; i++) {
+            chosen[i] = members[random.nextInt(members.length)];
+        }
+
+        // each BFS needs its own arrays, memory is O(threads * n)
+        final int[] eccentricities = Arrays.stream(chosen)
+                .parallel()
+                .map(s -> {
+                    final int[] d = new int[n];
+                    final int[] o = new int[n];
+                    Arrays.fill(d, -1);
+                    return d[o[bfs(s, d, o, null) - 1]];
+                })
+                .toArray();
+        sweeps = chosen.length + 1;
+        final int[] bounds = {0, Integer.MAX_VALUE};
+        for (int e : eccentricities) {
+            bounds[0] = Math.max(bounds[0], e);
+            bounds[1] = Math.min(bounds[1], 2 * e);
+        }
+        return bounds;
+    }
+
+    private int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /***
+     * Breadth first search, distance must be all -1 on entry of a first BFS and
+     * is reset to -1 for vertices of the previous search on following ones
+     * @param source start vertex
+     * @param distance output, hop count from source, -1 if unreachable
+     * @param order output, visited vertices in BFS order, reached from previous search
+     * @param previous output, BFS tree parent of every visited vertex, may be null
+     * @return number of visited vertices
+     */
+    private int bfs(int source, int[] distance, int[] order, int[] previous) {
+        sweeps++;
+        // clear only what the last search visited, its vertices are at the front of order
+        for (int i = 0; i < n && distance[order[i]] >= 0; i++) {
+            distance[order[i]] = -1;
+        }
+        distance[source] = 0;
+        order[0] = source;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            final int v = order[head++];
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                final int w = targets[i];
+                if (distance[w] < 0) {
+                    distance[w] = distance[v] + 1;
+                    if (previous != null)
+                        previous[w] = v;
+                    order[tail++] = w;
+                }
+            }
+        }
+        return tail;
+    }
+}
@@ -0,0 +1,175 @@
+package net.spanningtree;
+
+import org.jgrapht.Graphs;
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * Greedy edge clique cover. Vertices are visited in ascending order, every edge
+ * (u, v) not yet covered seeds a clique that grows with the lowest common neighbor w
+ * whose edge (u, w) is not covered yet, so each grown member covers at least one new
+ * edge. The result is deterministic and never larger than the number of edges.
+ * Sparse graphs keep sorted adjacency arrays, O(sum of squared degrees), which is
+ * linear for bounded degree. Dense graphs keep adjacency bit rows so growing a clique
+ * costs O(size * n / 64) word operations. Both give the same cover.
+ */
+class GreedySegmentAdaptor extends SegmentAdaptor {
+    // largest graph that uses n * n bit rows, 128MB
+    private static final int DENSE_LIMIT = 1 << 15;
+
+    private final int maxSegment;
+
+    /***
+     * @param maxSegment maximum bridges per segment, zero for no limit
+     */
+    GreedySegmentAdaptor(int maxSegment) {
+        this.maxSegment = maxSegment == 0 ? Integer.MAX_VALUE : Math.max(2, maxSegment);
+    }
+
+    @Override
+    List<int[]> segments(UndirectedGraph<Integer, DefaultEdge> g) {
+        // dense indexes for vertex ids
+        final int[] ids = g.vertexSet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        final int n = ids.length;
+        final int[][] adjacency = new int[n][];
+        long degrees = 0;
+        for (int u = 0; u < n; u++) {
+            final int[] neighbors = Graphs.neighborListOf(g, ids[u]).stream()
+                    .mapToInt(id -> Arrays.binarySearch(ids, id)).toArray();
+            Arrays.sort(neighbors);
+            adjacency[u] = neighbors;
+            degrees += neighbors.length;
+        }
+
+        final List<int[]> segments = new ArrayList<>();
+        final int[] clique = new int[Math.min(n, maxSegment)];
+        // bit rows pay off once scanning a row is cheaper than scanning a neighbor list
+        if (n <= DENSE_LIMIT && degrees / Math.max(1, n) >= n / 64) {
+            coverDense(adjacency, clique, ids, segments);
+        } else {
+            coverSparse(adjacency, clique, ids, segments);
+        }
+        return segments;
+    }
+
+    private static void coverSparse(int[][] adjacency, int[] clique, int[] ids, List<int[]> segments) {
+        final int n = adjacency.length;
+        final boolean[][] covered = new boolean[n][];
+        for (int u = 0; u < n; u++) {
+            covered[u] = new boolean[adjacency[u].length];
+        }
+
+        // mark[w] == u + 1 while edge (u, w) is not covered
+        final int[] mark = new int[n];
+        for (int u = 0; u < n; u++) {
+            final int[] neighbors = adjacency[u];
+            for (int i = 0; i < neighbors.length; i++) {
+                if (!covered[u][i])
+                    mark[neighbors[i]] = u + 1;
+            }
+            for (int i = 0; i < neighbors.length; i++) {
+                final int v = neighbors[i];
+                if (mark[v] != u + 1)
+                    continue;
+                clique[0] = u;
+                clique[1] = v;
+                int size = 2;
+                for (int w : adjacency[v]) {
+                    if (size == clique.length)
+                        break;
+                    if (mark[w] == u + 1 && adjacentToAll(adjacency[w], clique, 2, size))
+                        clique[size++] = w;
+                }
+                for (int a = 0; a < size; a++) {
+                    for (int b = a + 1; b < size; b++) {
+                        covered[clique[a]][Arrays.binarySearch(adjacency[clique[a]], clique[b])] = true;
+                        covered[clique[b]][Arrays.binarySearch(adjacency[clique[b]], clique[a])] = true;
+                    }
+                    if (a > 0)
+                        mark[clique[a]] = 0;
+                }
+                segments.add(segment(clique, size, ids));
+            }
+        }
+    }
+
+    private static boolean adjacentToAll(int[] neighbors, int[] clique, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (Arrays.binarySearch(neighbors, clique[i]) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static void coverDense(int[][] adjacency, int[] clique, int[] ids, List<int[]> segments) {
+        final int n = adjacency.length;
+        final int words = (n + 63) >>> 6;
+        final long[][] adjacent = new long[n][words];
+        // bit w of row u is set while edge (u, w) is not covered
+        final long[][] uncovered = new long[n][words];
+        for (int u = 0; u < n; u++) {
+            for (int w : adjacency[u]) {
+                adjacent[u][w >>> 6] |= 1L << w;
+                uncovered[u][w >>> 6] |= 1L << w;
+            }
+        }
+
+        final long[] candidates = new long[words];
+        for (int u = 0; u < n; u++) {
+            final long[] open = uncovered[u];
+            int v;
+            while ((v = nextBit(open, 0)) >= 0) {
+                clique[0] = u;
+                clique[1] = v;
+                int size = 2;
+                final long[] row = adjacent[v];
+                for (int i = 0; i < words; i++) {
+                    candidates[i] = open[i] & row[i];
+                }
+                int w = 0;
+                while (size < clique.length && (w = nextBit(candidates, w)) >= 0) {
+                    clique[size++] = w;
+                    final long[] grown = adjacent[w];
+                    for (int i = w >>> 6; i < words; i++) {
+                        candidates[i] &= grown[i];
+                    }
+                }
+                for (int a = 0; a < size; a++) {
+                    for (int b = a + 1; b < size; b++) {
+                        uncovered[clique[a]][clique[b] >>> 6] &= ~(1L << clique[b]);
+                        uncovered[clique[b]][clique[a] >>> 6] &= ~(1L << clique[a]);
+                    }
+                }
+                segments.add(segment(clique, size, ids));
+            }
+        }
+    }
+
+    /***
+     * @return index of first set bit at or after from, -1 if none
+     */
+    private static int nextBit(long[] bits, int from) {
+        int i = from >>> 6;
+        if (i >= bits.length)
+            return -1;
+        long word = bits[i] & (-1L << from);
+        while (word == 0) {
+            if (++i == bits.length)
+                return -1;
+            word = bits[i];
+        }
+        return (i << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    private static int[] segment(int[] clique, int size, int[] ids) {
+        final int[] segment = new int[size];
+        for (int a = 0; a < size; a++) {
+            segment[a] = ids[clique[a]];
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,343 @@
+package net.spanningtree;
+
+import java.util.Arrays;
+
+/***
+ * Incoming FIFO queue of an element. Every entry is a shared frame plus the local
+ * port it arrived at, both kept in parallel ring arrays so a delivery doesn't
+ * allocate anything. Many elements may offer concurrently while only the owner
+ * element consumes.
+ * A bounded inbox models a switch queue limit, when it is full the overflow policy
+ * decides which frame is lost. Blocking producers wait at most one tick period and
+ * then drop the new frame so that two full elements can never wait on each other.
+ * A coalescing inbox keeps at most one root advertisement and one cost advertisement
+ * pending: a new one either replaces the pending one in place if it is better for
+ * the receiver or is dropped, lower root id first, then lower cost, designated
+ * bridge and port id like Bridge compares them. Every dropped advertisement was
+ * superseded by one the receiver handles anyway, so the tree stays the same while
+ * stale advertisements are neither handled nor passed on.
+ * For record and replay the result of every poll can be traced, or scripted so
+ * that polls return recorded results while offers are ignored.
+ */
+class Inbox {
+    enum Overflow {BLOCK, DROP_OLDEST, DROP_NEWEST}
+
+    // zero for unbounded
+    private final int capacity;
+    private final Overflow overflow;
+    private final boolean timed;
+    private final boolean coalesce;
+    private BridgeFrame[] frames;
+    private int[] ports;
+    private int head = 0;
+    private int size = 0;
+    private int blocked = 0;
+    // coalescing only, ring index of the pending ROOT_ADVERTISE and RP_ELECTION frame
+    private int pendingRoot = -1;
+    private int pendingCost = -1;
+    // consumer only
+    private int polledPort;
+    // recording of the owner's polls, null when not recorded
+    private DeliveryRecorder.Track track;
+    // replay only, results of the polls of the current tick
+    private BridgeFrame[] script;
+    private int[] scriptPorts;
+    private int scriptLength;
+    private int scriptNext;
+
+    // counters
+    private int highWater = 0;
+    private long drops = 0;
+    private long superseded = 0;
+    private long enqueues = 0;
+    private long enqueueNanos = 0;
+    private long maxEnqueueNanos = 0;
+
+    /***
+     * Unbounded inbox
+     */
+    Inbox() {
+        this(0, Overflow.DROP_NEWEST, false, false);
+    }
+
+    /***
+     * @param capacity maximum frames, zero for unbounded
+     * @param overflow what to do when full
+     * @param timed measure enqueue latency
+     * @param coalesce drop superseded root and cost advertisements
+     */
+    Inbox(int capacity, Overflow overflow, boolean timed, boolean coalesce) {
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.timed = timed;
+        this.coalesce = coalesce;
+        // ring length must be a power of two
+        final int length = capacity == 0 ? 4 : Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        frames = new BridgeFrame[length];
+        ports = new int[length];
+    }
+
+    /***
+     * @return number of frames lost because of this offer, either the offered one
+     * or an older one, zero or one, superseded ones included
+     */
+    int offer(BridgeFrame frame, int port) {
+        if (script != null)
+            return 0;
+        final long started = timed ? System.nanoTime() : 0;
+        int dropped = 0;
+        synchronized (this) {
+            if (coalesce && supersede(frame, port)) {
+                dropped = 1;
+                superseded++;
+                frame = null;
+            } else if (capacity > 0 && size == capacity) {
+                if (overflow == Overflow.BLOCK)
+                    awaitSpace();
+                if (size == capacity) {
+                    dropped = 1;
+                    drops++;
+                    if (overflow == Overflow.DROP_OLDEST) {
+                        remove();
+                    } else {
+                        frame = null;
+                    }
+                }
+            }
+            if (frame != null) {
+                if (size == frames.length)
+                    grow();
+                final int tail = (head + size) & (frames.length - 1);
+                frames[tail] = frame;
+                ports[tail] = port;
+                size++;
+                if (coalesce) {
+                    if (frame.getMode() == Bridge.States.ROOT_ADVERTISE)
+                        pendingRoot = tail;
+                    else if (frame.getMode() == Bridge.States.RP_ELECTION)
+                        pendingCost = tail;
+                }
+                if (size > highWater)
+                    highWater = size;
+            }
+            if (timed) {
+                final long elapsed = System.nanoTime() - started;
+                enqueues++;
+                enqueueNanos += elapsed;
+                if (elapsed > maxEnqueueNanos)
+                    maxEnqueueNanos = elapsed;
+            }
+        }
+        return dropped;
+    }
+
+    /***
+     * Coalesces frame with the pending advertisement of the same mode, if any
+     * @return true if either of them is superseded, the better one is pending in
+     * the place of the first
+     */
+    private boolean supersede(BridgeFrame frame, int port) {
+        final Bridge.States mode = frame.getMode();
+        final int index;
+        if (mode == Bridge.States.ROOT_ADVERTISE)
+            index = pendingRoot;
+        else if (mode == Bridge.States.RP_ELECTION)
+            index = pendingCost;
+        else
+            return false;
+        // at most one frame of the mode is pending, so any pending one is it
+        if (index < 0 || ((index - head) & (frames.length - 1)) >= size || frames[index].getMode() != mode)
+            return false;
+        if (better(frame, frames[index])) {
+            frames[index] = frame;
+            ports[index] = port;
+        }
+        return true;
+    }
+
+    /***
+     * @return true if the receiver would prefer frame over pending, equal ones keep
+     * the pending one
+     */
+    private static boolean better(BridgeFrame frame, BridgeFrame pending) {
+        if (frame.getMessage() != pending.getMessage())
+            return frame.getMessage() < pending.getMessage();
+        if (frame.getMode() == Bridge.States.ROOT_ADVERTISE)
+            return false;
+        if (frame.getCost() != pending.getCost())
+            return frame.getCost() < pending.getCost();
+        if (frame.getSender().id != pending.getSender().id)
+            return frame.getSender().id < pending.getSender().id;
+        return frame.getTieBreaker() < pending.getTieBreaker();
+    }
+
+    private void awaitSpace() {
+        final long deadline = System.nanoTime() + Element.PERIOD * 1000000L;
+        long remaining;
+        blocked++;
+        try {
+            while (size == capacity && (remaining = deadline - System.nanoTime()) > 0) {
+                wait(remaining / 1000000, (int) (remaining % 1000000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            blocked--;
+        }
+    }
+
+    /***
+     * Removes frame at head
+     * @return removed frame or null if empty, its port is available from polledPort()
+     */
+    synchronized BridgeFrame poll() {
+        if (script != null)
+            return scripted();
+        if (size == 0)
+            return traced(null);
+        final BridgeFrame frame = frames[head];
+        polledPort = ports[head];
+        remove();
+        return traced(frame);
+    }
+
+    private BridgeFrame traced(BridgeFrame frame) {
+        if (track != null)
+            track.polled(frame, polledPort);
+        return frame;
+    }
+
+    private BridgeFrame scripted() {
+        if (scriptNext == scriptLength)
+            return null;
+        polledPort = scriptPorts[scriptNext];
+        return script[scriptNext++];
+    }
+
+    /***
+     * Records the result of every poll from now on
+     * @param track recording of the owner
+     */
+    void trace(DeliveryRecorder.Track track) {
+        this.track = track;
+    }
+
+    /***
+     * Replay only, the next polls return exactly these results in order and then
+     * nothing, offers are ignored from now on
+     * @param frames poll results, null for polls which found nothing
+     * @param ports ports the frames arrived at
+     * @param length number of results
+     */
+    synchronized void script(BridgeFrame[] frames, int[] ports, int length) {
+        script = frames;
+        scriptPorts = ports;
+        scriptLength = length;
+        scriptNext = 0;
+    }
+
+    /***
+     * @return scripted results not polled yet
+     */
+    synchronized int unscripted() {
+        return scriptLength - scriptNext;
+    }
+
+    /***
+     * Consumer side only
+     * @return local port of the frame last polled
+     */
+    int polledPort() {
+        return polledPort;
+    }
+
+    private void remove() {
+        frames[head] = null;
+        head = (head + 1) & (frames.length - 1);
+        size--;
+        if (blocked > 0)
+            notifyAll();
+    }
+
+    synchronized int size() {
+        return script != null ? scriptLength - scriptNext : size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /***
+     * Moves all entries of another inbox to the end of this one, ordered by port
+     * number. Entries of the same port keep their order.
+     * @param other inbox to drain
+     * @return number of frames lost to overflow
+     */
+    int drainSortedByPort(Inbox other) {
+        final BridgeFrame[] drainedFrames;
+        final int[] drainedPorts;
+        synchronized (other) {
+            if (other.size == 0)
+                return 0;
+            drainedFrames = new BridgeFrame[other.size];
+            drainedPorts = new int[other.size];
+            for (int i = 0; i < drainedFrames.length; i++) {
+                drainedFrames[i] = other.poll();
+                drainedPorts[i] = other.polledPort;
+            }
+        }
+        // stable sort on (port, arrival) pairs
+        final long[] keys = new long[drainedFrames.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) drainedPorts[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int dropped = 0;
+        for (long key : keys) {
+            final int i = (int) key;
+            dropped += offer(drainedFrames[i], drainedPorts[i]);
+        }
+        return dropped;
+    }
+
+    private void grow() {
+        final int length = frames.length * 2;
+        final BridgeFrame[] grownFrames = new BridgeFrame[length];
+        final int[] grownPorts = new int[length];
+        for (int i = 0; i < size; i++) {
+            final int index = (head + i) & (frames.length - 1);
+            grownFrames[i] = frames[index];
+            grownPorts[i] = ports[index];
+        }
+        if (pendingRoot >= 0)
+            pendingRoot = (pendingRoot - head) & (frames.length - 1);
+        if (pendingCost >= 0)
+            pendingCost = (pendingCost - head) & (frames.length - 1);
+        frames = grownFrames;
+        ports = grownPorts;
+        head = 0;
+    }
+
+    synchronized int getHighWater() {
+        return highWater;
+    }
+
+    synchronized long getDrops() {
+        return drops;
+    }
+
+    synchronized long getSuperseded() {
+        return superseded;
+    }
+
+    /***
+     * @return average enqueue latency in nanoseconds, zero if not timed
+     */
+    synchronized long getAverageEnqueueNanos() {
+        return enqueues == 0 ? 0 : enqueueNanos / enqueues;
+    }
+
+    synchronized long getMaxEnqueueNanos() {
+        return maxEnqueueNanos;
+    }
+}
@@ -6,8 +6,8 @@ package net.spanningtree;
  * Fitzroy Nembhard on 11/26/14.
  */
 class LanSegment extends Element {
-    public LanSegment(int id) {
-        super(id);
+    public LanSegment(int id, Simulation simulation) {
+        super(id, simulation);
 
     }
 
@@ -17,19 +17,40 @@ class LanSegment extends Element {
     }
 
     /***
-     * Simply acts as cables or hubs except that for sake of simplicity doesn't forward back
-     * received frame to source
+     * Runs one step, sampled when metrics are on
      */
     @Override
     void tick() {
+        if (!metrics.enabled || !metrics.sample(this)) {
+            step();
+            return;
+        }
+        final int depth = frameQueue.size();
+        final long started = System.nanoTime();
+        step();
+        metrics.ticked(this, depth, System.nanoTime() - started);
+    }
+
+    /***
+     * Tells all other bridges a link changed, bridges with their root port here lose
+     * their path to root if the designated bridge is gone
+     */
+    @Override
+    void linkChanged(int port, boolean designatedLost) {
+        broadcast(new BridgeFrame(this, designatedLost ? 1 : 0, Bridge.States.TOPOLOGY_CHANGE), port);
+    }
+
+    /***
+     * Simply acts as cables or hubs except that for sake of simplicity doesn't forward back
+     * received frame to source
+     */
+    private void step() {
         BridgeFrame frame;// = null;
         while ((frame = frameQueue.poll()) != null) {
-            // broadcasting frame to all ports except the incoming one.
-            for (Integer port : ports.keySet()) {
-                if (frame.getSender().getId().contains(ports.get(port).getId()))
-                    continue;
-                ports.get(port).enqueue(this, frame.clone(this));
-            }
+            final int ingressPort = frameQueue.polledPort();
+            // broadcasting the same frame to all ports except the incoming one.
+            broadcast(frame, ingressPort);
+            convergence.consumed();
 
         }
 
@@ -0,0 +1,33 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.Random;
+import java.util.Set;
+
+/***
+ * Original generator, draws every ordered pair of vertices. Quadratic, kept so that
+ * earlier runs can be reproduced, it always uses seed 2.
+ */
+class LegacyTopology extends Topology {
+
+    @Override
+    UndirectedGraph<Integer, DefaultEdge> generate(int nodes, double density, long seed) {
+        UndirectedGraph<Integer, DefaultEdge> g = emptyGraph(nodes);
+
+        // creates graph with the density provided
+        Set<Integer> vertices = g.vertexSet();
+        float d = (float) density;
+        Random random = new Random(2);
+        for (int node1 : vertices) {
+            for (int node2 : vertices) {
+                if (node1 == node2 || random.nextFloat() >= d)
+                    continue;
+                g.addEdge(node1, node2);
+
+            }
+        }
+        return g;
+    }
+}
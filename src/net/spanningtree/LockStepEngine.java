@@ -0,0 +1,88 @@
+package net.spanningtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/***
+ * Deterministic synchronous mode. Every round ticks all elements in parallel on a
+ * ForkJoinPool and frames sent during round k become visible only in round k+1,
+ * so results are the same at any number of threads.
+ */
+class LockStepEngine extends Engine {
+    // below this many elements a task ticks its range itself instead of splitting
+    private static final int SPLIT_THRESHOLD = 256;
+
+    private final int threads;
+
+    LockStepEngine(int threads) {
+        this.threads = threads;
+    }
+
+    /***
+     * Applies an action to a range of elements, splitting the range among workers
+     */
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Element> elements;
+        private final int from;
+        private final int to;
+        private final Consumer<Element> action;
+
+        RangeAction(List<Element> elements, int from, int to, Consumer<Element> action) {
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    action.accept(elements.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeAction(elements, from, middle, action),
+                    new RangeAction(elements, middle, to, action));
+        }
+    }
+
+    @Override
+    void run(Collection<Bridge> bridges, Collection<LanSegment> lanSegments,
+             Convergence convergence) {
+        long started = System.nanoTime();
+        final List<Element> elements = new ArrayList<>(lanSegments);
+        elements.addAll(bridges);
+        elements.forEach(Element::bufferRounds);
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final long[] rounds = {0};
+        convergence.start(() -> rounds[0] * Element.PERIOD);
+        try {
+            while (bridges.stream().anyMatch(Element::isAlive)) {
+                if (failures != null)
+                    failures.apply();
+                pool.invoke(new RangeAction(elements, 0, elements.size(), e -> {
+                    if (e.isAlive())
+                        e.tick();
+                }));
+                // barrier passed, publish this round's frames for the next one
+                pool.invoke(new RangeAction(elements, 0, elements.size(),
+                        Element::flipRound));
+                rounds[0]++;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        lanSegments.forEach(Element::stop);
+        if (!quiet)
+            System.out.println("rounds: " + rounds[0] + ", threads: " + threads);
+        printUsage(started);
+    }
+}
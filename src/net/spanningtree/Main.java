@@ -1,59 +1,228 @@
 package net.spanningtree;
 
 import org.jgrapht.UndirectedGraph;
-import org.jgrapht.alg.BronKerboschCliqueFinder;
-import org.jgrapht.alg.ConnectivityInspector;
-import org.jgrapht.alg.FloydWarshallShortestPaths;
-import org.jgrapht.experimental.GraphTests;
 import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.graph.SimpleGraph;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.*;
 import java.util.stream.Collectors;
 
 class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         GetCliParameters getCliParameters = new GetCliParameters(args).invoke();
         if (getCliParameters.is()) return;
+        final Configurations configurations = getCliParameters.getConfigurations();
+        if (configurations.sweep != null) {
+            try {
+                new Sweep(configurations).run();
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid --sweep: " + e.getMessage());
+            }
+            return;
+        }
         Integer n = getCliParameters.getNods();
         Float d = getCliParameters.getDensity();
-
-        UndirectedGraph<Integer, DefaultEdge> g = createConceptGraph(n, d);
-        printConceptGraphInformation(g);
+        if (configurations.shards > 0) {
+            new ShardCoordinator(configurations, savedSnapshot(configurations, n, d)).run();
+            return;
+        }
+        if (configurations.engine.equals("compact")) {
+            final CompactNetwork network = new CompactNetwork(
+                    NetworkSnapshot.load(savedSnapshot(configurations, n, d)));
+            network.run();
+            network.getConvergence().printReport();
+            System.out.println(network.summarize());
+            network.printFootprint();
+            return;
+        }
 
         // create all required bridges according to user input.
         final HashMap<Integer, Bridge> bridges = new HashMap<>();
         final HashSet<LanSegment> lanSegments = new HashSet<>();
-
-        networkAdaptor(g, bridges, lanSegments);
-        printNetworkGraph(bridges, lanSegments);
-        if (Configurations.showCsv)
+        final Simulation simulation;
+        final Metrics metrics = new Metrics(configurations.metrics);
+        metrics.register();
+
+        if (configurations.loadTopology != null) {
+            final long started = System.nanoTime();
+            final NetworkSnapshot snapshot = NetworkSnapshot.load(configurations.loadTopology);
+            simulation = new Simulation(configurations, snapshot.getBridgeCount(), metrics,
+                    new EventLog(configurations.logLevel, configurations.logFile));
+            snapshot.build(bridges, lanSegments, simulation);
+            System.out.println("network loaded from " + configurations.loadTopology + ": " +
+                    bridges.size() + " bridges, " + lanSegments.size() + " LAN segments in " +
+                    (System.nanoTime() - started) / 1000000 + " ms");
+        } else {
+            UndirectedGraph<Integer, DefaultEdge> g = createConceptGraph(configurations, n, d);
+            printConceptGraphInformation(g, configurations, n);
+
+            simulation = new Simulation(configurations, g.vertexSet().size(), metrics,
+                    new EventLog(configurations.logLevel, configurations.logFile));
+            final long started = System.nanoTime();
+            networkAdaptor(g, bridges, lanSegments, simulation);
+            // segment size is number of attached bridges
+            Map<Integer, Long> sizeDistribution = new TreeMap<>(lanSegments.stream()
+                    .collect(Collectors.groupingBy(s -> s.portCount, Collectors.counting())));
+            System.out.println("adaptor " + configurations.adaptor + ": " + lanSegments.size() +
+                    " LAN segments in " + (System.nanoTime() - started) / 1000000 + " ms");
+            System.out.println("segment size distribution: " + sizeDistribution);
+        }
+        final Convergence convergence = simulation.convergence;
+        final EventLog log = simulation.log;
+
+        if (configurations.saveTopology != null) {
+            final long started = System.nanoTime();
+            NetworkSnapshot.save(configurations.saveTopology, bridges.values(), lanSegments);
+            System.out.println("network saved to " + configurations.saveTopology + " in " +
+                    (System.nanoTime() - started) / 1000000 + " ms");
+        }
+        printNetworkGraph(bridges, lanSegments, log);
+        if (configurations.showCsv)
           printCsv(bridges, lanSegments);
-        runDistributed(bridges, lanSegments);
+        final DeliveryRecorder recorder = configurations.record == null ? null :
+                new DeliveryRecorder(configurations.record, bridges.values(), lanSegments.size());
+        final Engine engine = configurations.replay != null ? new ReplayEngine(configurations.replay) :
+                Engine.create(configurations.engine, configurations.threads);
+        if (configurations.failures != null) {
+            try {
+                engine.failures = new FailureInjector(configurations.failures, bridges, lanSegments, convergence);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid --failures: " + e.getMessage());
+                return;
+            }
+        }
+        engine.run(bridges.values(), lanSegments, convergence);
+        if (recorder != null)
+            recorder.close(bridges.values());
+        log.close();
+        // a replay only sets the phases, it prints its own report
+        if (configurations.replay == null)
+            convergence.printReport();
+        // converged only means the network fell quiet, lost frames may have left loops
+        final long drops = lanSegments.stream().mapToLong(e -> e.frameQueue.getDrops()).sum() +
+                bridges.values().stream().mapToLong(e -> e.frameQueue.getDrops()).sum();
+        if (drops > 0)
+            System.out.println("warning: inboxes dropped " + drops + " frames, the tree may be wrong" +
+                    (configurations.verify ? "" : ", check it with --verify"));
+        if (configurations.verify)
+            new Verifier(bridges.values(), lanSegments).printReport();
+        printQueueStatistics(bridges, lanSegments, configurations.queueStats);
+        metrics.printSummary(bridges.values(), lanSegments);
+        if (configurations.exportFile != null) {
+            final long started = System.nanoTime();
+            NetworkExport.export(configurations.exportFile, bridges.values(), lanSegments);
+            System.out.println("network exported to " + configurations.exportFile + " in " +
+                    (System.nanoTime() - started) / 1000000 + " ms");
+        }
 
     }
 
     /***
-     * Runs LAN segments and Bridges in distributed mode using timers
-     * @param bridges, keys represent port number, values bridges
-     * @param lanSegments LAN Segments
+     * Network every worker of a sharded run or the compact engine loads: a
+     * --load-topology snapshot as it is, anything else is built here once, measured
+     * and saved, to --save-topology if given or to a temporary file
+     * @param configurations settings of run
+     * @param n number of bridges
+     * @param d desired density between 0 and 1
+     * @return snapshot file
+     */
+    private static String savedSnapshot(Configurations configurations, Integer n, Float d) throws IOException {
+        if (configurations.loadTopology != null && NetworkSnapshot.isSnapshot(configurations.loadTopology))
+            return configurations.loadTopology;
+        final HashMap<Integer, Bridge> bridges = new HashMap<>();
+        final HashSet<LanSegment> lanSegments = new HashSet<>();
+        final long before;
+        if (configurations.loadTopology != null) {
+            final NetworkSnapshot snapshot = NetworkSnapshot.load(configurations.loadTopology);
+            before = usedHeap();
+            snapshot.build(bridges, lanSegments, new Simulation(configurations, snapshot.getBridgeCount()));
+        } else {
+            UndirectedGraph<Integer, DefaultEdge> g = createConceptGraph(configurations, n, d);
+            printConceptGraphInformation(g, configurations, n);
+            before = usedHeap();
+            networkAdaptor(g, bridges, lanSegments, new Simulation(configurations, g.vertexSet().size()));
+        }
+        // element objects before any frame is sent, LAN segments included
+        final long objects = usedHeap() - before;
+        System.out.println("object model: " + objects / (1 << 20) + " MB, " + objects / Math.max(1, bridges.size()) +
+                " bytes per bridge");
+        String file = configurations.saveTopology;
+        if (file == null) {
+            final File temporary = File.createTempFile("stpsim", ".snapshot");
+            temporary.deleteOnExit();
+            file = temporary.getPath();
+        }
+        NetworkSnapshot.save(file, bridges.values(), lanSegments);
+        System.out.println("network saved to " + file + ": " + bridges.size() + " bridges, " +
+                lanSegments.size() + " LAN segments");
+        return file;
+    }
+
+    /***
+     * @return heap in use after a full collection
      */
-    private static void runDistributed(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments) {
-        lanSegments.stream().forEach(Element::start);
-        bridges.values().stream().forEach(Element::start);
-        // wait until all bridges all done.
-        while (bridges.values().stream().anyMatch(p -> p.isAlive()));
-        lanSegments.stream().forEach(p -> p.stop());
+    private static long usedHeap() {
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
     }
 
     /***
-     * Prints information of networks and bridges
+     * Prints total inbox drops and the most congested elements
+     * @param bridges bridges to print
+     * @param lanSegments lan segments to print
+     * @param queueStats print enqueue latency too
+     */
+    private static void printQueueStatistics(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments,
+                                             boolean queueStats) {
+        final List<Element> elements = new ArrayList<>(lanSegments);
+        elements.addAll(bridges.values());
+        final long drops = elements.stream().mapToLong(e -> e.frameQueue.getDrops()).sum();
+        final long superseded = elements.stream().mapToLong(e -> e.frameQueue.getSuperseded()).sum();
+        System.out.println("inbox drops: " + drops + (superseded > 0 ? ", superseded: " + superseded : ""));
+
+        elements.sort(Comparator.comparingInt((Element e) -> e.frameQueue.getHighWater())
+                .thenComparingLong(e -> e.frameQueue.getDrops())
+                .reversed());
+        for (Element element : elements.subList(0, Math.min(10, elements.size()))) {
+            final Inbox inbox = element.frameQueue;
+            String s = element.getId() + " inbox high water: " + inbox.getHighWater() +
+                    ", drops: " + inbox.getDrops();
+            if (queueStats)
+                s += ", enqueue avg: " + inbox.getAverageEnqueueNanos() + " ns, max: " +
+                        inbox.getMaxEnqueueNanos() + " ns";
+            System.out.println(s);
+        }
+    }
+
+    /***
+     * Logs every port of networks and bridges
      * @param bridges bridges to print
      * @param lanSegments  lan segments to print
+     * @param log event log
      */
-    private static void printNetworkGraph(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments) {
-        System.out.println("networks: " + lanSegments);
-        System.out.println("bridges:  " + bridges.values());
+    private static void printNetworkGraph(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments,
+                                  EventLog log) {
+        if (!log.enabled)
+            return;
+        for (LanSegment lanSegment : lanSegments) {
+            logLinks(lanSegment, log);
+        }
+        for (Bridge bridge : bridges.values()) {
+            logLinks(bridge, log);
+        }
+    }
+
+    private static void logLinks(Element element, EventLog log) {
+        for (int port = 0; port < element.portCount; port++) {
+            final Element neighbor = element.neighbors[port];
+            log.record(EventLog.LINK, element, 0, 0, 0, 0, neighbor.id, element.portIds[port],
+                    neighbor.getAbbreviation().charAt(0));
+        }
     }
 
     /***
@@ -64,118 +233,85 @@ class Main {
      * 2. Graph diameter so we can make sure we have path costs more than 1
      * 3. Degree distribution so we make sure we have no bridge with less than two ports
      * 4. Connectivity to make sure we have single component network
+     * Only the statistics selected with --diagnostics are computed
      * @param g jGraphT graph
+     * @param configurations settings of run
+     * @param n requested number of bridges
      */
-    private static void printConceptGraphInformation(UndirectedGraph<Integer, DefaultEdge> g) {
-        FloydWarshallShortestPaths floydWarshallShortestPaths = new FloydWarshallShortestPaths(g);
-        ConnectivityInspector connectivityInspector = new ConnectivityInspector(g);
-
-        if (GraphTests.isTree(g)) {
-            System.out.println("WARNING: Generated graph is already a tree, try changing seed numbers or node numbers.");
-        }
-
-        if (!connectivityInspector.isGraphConnected()) {
-            System.out.println("WARNING: Graph is not connected. , try changing seed numbers or node numbers.");
+    private static void printConceptGraphInformation(UndirectedGraph<Integer, DefaultEdge> g,
+                                                     Configurations configurations, int n) {
+        // structured topologies round to their shape
+        if (g.vertexSet().size() != n)
+            System.out.println("topology " + configurations.topology + ": " + g.vertexSet().size() +
+                    " bridges of " + n + " requested");
+        // check for nodes with degree less than 2
+        boolean countSingleDegree = g.vertexSet().stream().anyMatch(p -> g.degreeOf(p) < 2);
+        if (countSingleDegree) {
+            System.out.println("WARNING: Bridge with degree less than 2 found");
         }
-
-        // calculate degree distribution
-        Map<Integer, Long> degreeDistribution = g.vertexSet()
-                .stream()
-                .collect(Collectors.groupingBy(g::degreeOf,
-                        Collectors.counting()));
-
-        System.out.println("graph: " + g.toString());
-        System.out.println("degree distribution: " + degreeDistribution);
-        System.out.println("graph diameter: " + floydWarshallShortestPaths.getDiameter());
+        GraphDiagnostics.print(g, configurations.diagnostics, configurations.seedNetwork);
     }
 
     /***
      * Creates jGraphT concept diagram to be converted into network and LAN segments
-     * It also take cares of bridges with less than 1 degree and bridges with no degree
+     * using the selected topology generator
+     * @param configurations settings of run, topology generator and network seed
      * @param nb number of bridges
      * @param d desired density between 0 and 1
      * @return
      */
-    private static UndirectedGraph<Integer, DefaultEdge> createConceptGraph(int nb, double d) {
-        UndirectedGraph<Integer, DefaultEdge> g =
-                new SimpleGraph<>(DefaultEdge.class);
-
-        for (int i = 0; i < nb; i++) {
-            g.addVertex(i);
-        }
-
-        // creates graph with the density provided
-        Set<Integer> nodes = g.vertexSet();
-        float density = (float) d;
-        Random random = new Random(2);
-        for (int node1 : nodes) {
-            for (int node2 : nodes) {
-                if (node1 == node2 || random.nextFloat() >= density)
-                    continue;
-                g.addEdge(node1, node2);
-
-            }
-        }
-
-        // check for nodes with degree less than 2
-        boolean countSingleDegree = nodes.stream().filter(p -> g.degreeOf(p) < 2).count() > 0;
-        if (countSingleDegree) {
-            System.out.println("WARNING: Bridge with degree less than 2 found");
-        }
-        return g;
+    static UndirectedGraph<Integer, DefaultEdge> createConceptGraph(Configurations configurations, int nb,
+                                                                     double d) {
+        return Topology.create(configurations.topology).generate(nb, d, configurations.seedNetwork);
     }
 
     /***
      * Converts givens concept diagram into LAN segments and bridges
      * In order to have LAN segments with more than 2 degree surrounded by two bridges
-     * We used Bron Kerbosch Clique finder to find cliques in network. By making each
-     * Clique a single LAN Segment with created less LAN Segments without sacrificing
-     * density of graph. Having LAN Segment with more than 2 degree looks more realistic
-     * also.
+     * We cover concept diagram with cliques and make each clique a single LAN Segment,
+     * that creates less LAN Segments without sacrificing density of graph. Having LAN
+     * Segment with more than 2 degree looks more realistic also.
+     * Exact adaptor uses Bron Kerbosch maximal cliques, greedy adaptor a polynomial
+     * edge clique cover for large or dense graphs.
      * @param g jGraphT concept diagram
      * @param bridges output parameter
      * @param lanSegments output parameter
+     * @param simulation simulation the elements belong to, its adaptor and protocol are used
      */
-    private static void networkAdaptor(UndirectedGraph<Integer, DefaultEdge> g,
-                                       HashMap<Integer, Bridge> bridges,
-                                       Set<LanSegment> lanSegments) {
+    static void networkAdaptor(UndirectedGraph<Integer, DefaultEdge> g,
+                               HashMap<Integer, Bridge> bridges,
+                               Set<LanSegment> lanSegments,
+                               Simulation simulation) {
         for (Integer bridgeId : g.vertexSet()) {
-            bridges.put(bridgeId, new Bridge(bridgeId));
+            bridges.put(bridgeId, Bridge.create(bridgeId, simulation));
         }
 
-        BronKerboschCliqueFinder bronKerboschCliqueFinder = new BronKerboschCliqueFinder(g);
-
-        // set of cliques
-        Set<Set<Integer>> cliques = (Set<Set<Integer>>) bronKerboschCliqueFinder
-                .getAllMaximalCliques()
-                .stream()
-                .map(m -> (Set<Integer>) m)
-                .collect(Collectors.toSet());
+        final Configurations configurations = simulation.configurations;
+        final List<int[]> segments = SegmentAdaptor
+                .create(configurations.adaptor, configurations.maxSegment)
+                .segments(g);
 
         // create a network for each clique and connect all bridges in clique to that network
         int n = 0;
-        for (Set<Integer> clique : cliques) {
-            LanSegment lanSegment = new LanSegment(n++);
+        for (int[] segment : segments) {
+            LanSegment lanSegment = new LanSegment(n++, simulation);
             lanSegments.add(lanSegment);
-            for (Integer bridgeId : clique) {
-                Bridge bridge = bridges.get(bridgeId);
-                bridge.addPort(lanSegment);
-                lanSegment.addPort(bridge);
-                bridges.put(bridgeId, bridge);
+            for (int bridgeId : segment) {
+                Element.connect(bridges.get(bridgeId), lanSegment);
             }
         }
 
         for (Bridge bridge : bridges.values()) {
             // it doesn't make sense to have bridge with a single lan connection
-            if (bridge.ports.size() < 2) {
-                final LanSegment lanSegment = new LanSegment(n++);
-                bridge.addPort(lanSegment);
-                lanSegment.addPort(bridge);
+            if (bridge.portCount < 2) {
+                final LanSegment lanSegment = new LanSegment(n++, simulation);
+                lanSegments.add(lanSegment);
+                Element.connect(bridge, lanSegment);
             }
 
             // taking care of bridge with no port
-            if (bridge.ports.size() < 1) {
-                bridge.addPort(lanSegments.stream().findFirst().get());
+            if (bridge.portCount < 1) {
+                Element.connect(bridge, lanSegments.stream().findFirst().get());
             }
 
         }
@@ -186,23 +322,26 @@ class Main {
      * @param bridges
      * @param lanSegments
      */
-    private static void printCsv(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments) {
+    private static void printCsv(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments) throws IOException {
+        // one buffered writer instead of a println per edge
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
         // print headers
-        System.out.println("Source,Target,Type");
+        out.write("Source,Target,Type\n");
         // print lan segments
         for (LanSegment lanSegment : lanSegments) {
-            for (Element element : lanSegment.ports.values()) {
-                System.out.println(lanSegment.getId() + "," + element.getId() + ",\"LAN\"");
+            for (int port = 0; port < lanSegment.portCount; port++) {
+                out.write(lanSegment.getId() + "," + lanSegment.neighbors[port].getId() + ",\"LAN\"\n");
             }
         }
 
         // print bridges
         for (Bridge bridge : bridges.values()) {
-            for (Element element : bridge.ports.values()) {
-                System.out.println(bridge.getId() + "," + element.getId() + ",\"BRIDGE\"");
+            for (int port = 0; port < bridge.portCount; port++) {
+                out.write(bridge.getId() + "," + bridge.neighbors[port].getId() + ",\"BRIDGE\"\n");
             }
 
         }
+        out.flush();
     }
 
     private static class GetCliParameters {
@@ -210,6 +349,7 @@ class Main {
         private String[] args;
         private Integer n;
         private Float d;
+        private final Configurations configurations = new Configurations();
 
         public GetCliParameters(String... args) {
             this.args = args;
@@ -222,6 +362,59 @@ class Main {
                     "  --help                                show this help\n" +
                     "  --node                                number of nodes [mandatory]\n" +
                     "  --density                             density of graph [mandatory]\n" +
+                    "  --topology                            graph generator: legacy, gnp, scale-free, fat-tree,\n" +
+                    "                                        ring-of-rings [optional]\n" +
+                    "  --adaptor                             LAN segment construction: exact, greedy [optional]\n" +
+                    "  --max-segment                         maximum bridges per LAN segment, greedy adaptor only [optional]\n" +
+                    "  --diagnostics                         concept graph statistics, comma separated list of graph,\n" +
+                    "                                        tree, connectivity, degree, diameter, estimate, or all\n" +
+                    "                                        or none [optional]\n" +
+                    "  --save-topology                       save adapted network to a snapshot file [optional]\n" +
+                    "  --load-topology                       run on a saved snapshot or --show-csv output instead of\n" +
+                    "                                        generating a network, --node and --density are not needed\n" +
+                    "                                        [optional]\n" +
+                    "  --export                              write network and final port states to a .csv, .graphml\n" +
+                    "                                        or .gexf file, .gz suffix compresses it [optional]\n" +
+                    "  --engine                              simulation engine: timer, event, pool, lockstep, or compact\n" +
+                    "                                        for lock-step stp on primitive arrays instead of objects,\n" +
+                    "                                        no --failures, --verify, event log or metrics [optional]\n" +
+                    "  --protocol                            spanning tree protocol: stp, rstp, run both with the same\n" +
+                    "                                        seeds or --load-topology to compare them [optional]\n" +
+                    "  --failures                            topology changes during the run, comma separated list of\n" +
+                    "                                        time:down:B3-N7, time:up:B3-N7 or time:kill:B3 with virtual\n" +
+                    "                                        times in ms, event and lockstep engines only [optional]\n" +
+                    "  --log                                 event log: off, text, binary, default off [optional]\n" +
+                    "  --log-file                            binary event log file [optional]\n" +
+                    "  --queue-capacity                      inbox capacity per element, 0 for unbounded [optional]\n" +
+                    "  --queue-overflow                      full inbox policy: block, drop-oldest, drop-newest, block\n" +
+                    "                                        needs the timer engine [optional]\n" +
+                    "  --queue-stats                         measure enqueue latency [optional]\n" +
+                    "  --budget                              frames an stp bridge handles per tick, 0 for all queued,\n" +
+                    "                                        frames of later phases are put aside, default 1, rstp\n" +
+                    "                                        bridges handle all queued [optional]\n" +
+                    "  --coalesce                            inboxes drop root and cost advertisements a pending one\n" +
+                    "                                        supersedes, stp only, not with --failures, --shards or the\n" +
+                    "                                        compact engine [optional]\n" +
+                    "  --threads                             number of threads for pool and lockstep engines, number\n" +
+                    "                                        of concurrent runs for --sweep [optional]\n" +
+                    "  --sweep                               run every combination of a sweep spec file in this JVM,\n" +
+                    "                                        lines like nodes = 100, 200 or seed = 0..99 with keys\n" +
+                    "                                        nodes, density, seed, topology, adaptor, max-segment,\n" +
+                    "                                        protocol and engine, other options are defaults [optional]\n" +
+                    "  --sweep-output                        CSV file with one row per sweep run, sweep.csv by\n" +
+                    "                                        default [optional]\n" +
+                    "  --verify                              check final port states against a reference solution,\n" +
+                    "                                        for loops and for partitions [optional]\n" +
+                    "  --shards                              run lock-step on this many local worker processes which\n" +
+                    "                                        exchange frames over loopback, for networks too large\n" +
+                    "                                        for one heap, workers get the -Xmx of this JVM, no\n" +
+                    "                                        --failures, --verify, event log or metrics [optional]\n" +
+                    "  --record                              write every bridge's frame deliveries to a file for\n" +
+                    "                                        --replay, no --failures [optional]\n" +
+                    "  --replay                              replay a --record file single threaded instead of running\n" +
+                    "                                        an engine, on the network it was recorded on [optional]\n" +
+                    "  --metrics                             collect frame, inbox and tick metrics, published over JMX\n" +
+                    "                                        and summarized at the end [optional]\n" +
                     "Seed Options:\n" +
                     "  --seed-network                        random seed number for network structure [optional]\n" +
                     "  --seed-sync                           random seed number for threads timing [optional]\n";
@@ -241,6 +434,10 @@ class Main {
             return d;
         }
 
+        Configurations getConfigurations() {
+            return configurations;
+        }
+
         public GetCliParameters invoke() {
             if (args.length == 0) {
                 showHelp();
@@ -281,7 +478,154 @@ class Main {
                         ss = Integer.parseInt(args[++i]);
                     }
                     else if (args[i].contains("--show-csv")) {
-                        Configurations.showCsv = true;
+                        configurations.showCsv = true;
+                    }
+                    else if (args[i].contains("--log-file")) {
+                        configurations.logFile = args[++i];
+                    }
+                    else if (args[i].contains("--log")) {
+                        configurations.logLevel = EventLog.Level.valueOf(args[++i].toUpperCase());
+                    }
+                    else if (args[i].contains("--budget")) {
+                        configurations.budget = Integer.parseInt(args[++i]);
+                        if (configurations.budget < 0) {
+                            System.out.println("Budget can not be negative.");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--queue-capacity")) {
+                        configurations.queueCapacity = Integer.parseInt(args[++i]);
+                        if (configurations.queueCapacity < 0) {
+                            System.out.println("Queue capacity can not be negative.");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--queue-overflow")) {
+                        configurations.queueOverflow = Inbox.Overflow.valueOf(
+                                args[++i].toUpperCase().replace('-', '_'));
+                    }
+                    else if (args[i].contains("--queue-stats")) {
+                        configurations.queueStats = true;
+                    }
+                    else if (args[i].contains("--coalesce")) {
+                        configurations.coalesce = true;
+                    }
+                    else if (args[i].contains("--metrics")) {
+                        configurations.metrics = true;
+                    }
+                    else if (args[i].contains("--verify")) {
+                        configurations.verify = true;
+                    }
+                    else if (args[i].contains("--shards")) {
+                        configurations.shards = Integer.parseInt(args[++i]);
+                        if (configurations.shards < 1) {
+                            System.out.println("Number of shards can not be less than 1.");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--record")) {
+                        configurations.record = args[++i];
+                    }
+                    else if (args[i].contains("--replay")) {
+                        configurations.replay = args[++i];
+                    }
+                    else if (args[i].contains("--threads")) {
+                        configurations.threads = Integer.parseInt(args[++i]);
+                        if (configurations.threads < 1) {
+                            System.out.println("Number of threads can not be less than 1.");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--topology")) {
+                        configurations.topology = args[++i];
+                        if (Topology.create(configurations.topology) == null) {
+                            System.out.println("Unknown topology " + configurations.topology + ".");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--adaptor")) {
+                        configurations.adaptor = args[++i];
+                        if (SegmentAdaptor.create(configurations.adaptor, 0) == null) {
+                            System.out.println("Unknown adaptor " + configurations.adaptor + ".");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--max-segment")) {
+                        configurations.maxSegment = Integer.parseInt(args[++i]);
+                        if (configurations.maxSegment != 0 && configurations.maxSegment < 2) {
+                            System.out.println("Maximum segment size can not be less than 2.");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--diagnostics")) {
+                        final String list = args[++i];
+                        configurations.diagnostics.clear();
+                        if (list.equals("all")) {
+                            configurations.diagnostics.addAll(EnumSet.allOf(GraphDiagnostics.Statistic.class));
+                        } else if (!list.equals("none")) {
+                            for (String name : list.split(",")) {
+                                configurations.diagnostics.add(GraphDiagnostics.Statistic.valueOf(name.toUpperCase()));
+                            }
+                        }
+                    }
+                    else if (args[i].contains("--save-topology")) {
+                        configurations.saveTopology = args[++i];
+                    }
+                    else if (args[i].contains("--load-topology")) {
+                        configurations.loadTopology = args[++i];
+                    }
+                    else if (args[i].contains("--export")) {
+                        configurations.exportFile = args[++i];
+                        if (NetworkExport.formatOf(configurations.exportFile) == null) {
+                            System.out.println("Unknown export format " + configurations.exportFile + ".");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--protocol")) {
+                        configurations.protocol = args[++i];
+                        if (!configurations.protocol.equals("stp") && !configurations.protocol.equals("rstp")) {
+                            System.out.println("Unknown protocol " + configurations.protocol + ".");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
+                    }
+                    else if (args[i].contains("--sweep-output")) {
+                        configurations.sweepOutput = args[++i];
+                    }
+                    else if (args[i].contains("--sweep")) {
+                        configurations.sweep = args[++i];
+                    }
+                    else if (args[i].contains("--failures")) {
+                        configurations.failures = args[++i];
+                    }
+                    else if (args[i].contains("--engine")) {
+                        configurations.engine = args[++i];
+                        try {
+                            if (!configurations.engine.equals("compact"))
+                                Engine.create(configurations.engine, 1);
+                        } catch (IllegalArgumentException e) {
+                            System.out.println(e.getMessage() + ".");
+                            showHelp();
+                            myResult = true;
+                            return this;
+                        }
                     }
 
                 } catch (Exception e) {
@@ -291,14 +635,83 @@ class Main {
                 }
             }
 
-            if (n == null || d == null) {
+            if ((n == null || d == null) && configurations.loadTopology == null && configurations.sweep == null) {
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            if (n != null && configurations.topology.equals("fat-tree") && n < FatTreeTopology.MIN_NODES) {
+                System.out.println("Fat-tree needs at least " + FatTreeTopology.MIN_NODES + " nodes.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // a blocked producer would stall the thread ticking its consumer, only timers
+            // give every element a thread of its own
+            if (configurations.queueOverflow == Inbox.Overflow.BLOCK && !configurations.engine.equals("timer")) {
+                System.out.println("Blocking queues need timer engine.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // changes are scheduled in virtual time between ticks
+            if (configurations.failures != null &&
+                    !(configurations.engine.equals("event") || configurations.engine.equals("lockstep"))) {
+                System.out.println("Failure injection needs event or lockstep engine.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // the coordinator only sees round totals, not single elements
+            if (configurations.shards > 0 && configurations.failures != null) {
+                System.out.println("Failure injection does not work with --shards.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // the compact engine only has the arrays of classic stp
+            if (configurations.engine.equals("compact") && !configurations.protocol.equals("stp")) {
+                System.out.println("Compact engine runs stp only.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // nor more than one frame per tick
+            if (configurations.engine.equals("compact") && configurations.budget != 1) {
+                System.out.println("Compact engine handles one frame per tick, --budget 1 only.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // a bridge which detaches forgets what a superseded advertisement told it, compact
+            // and shard workers have inboxes of their own
+            if (configurations.coalesce && (configurations.failures != null || !configurations.protocol.equals("stp") ||
+                    configurations.engine.equals("compact") || configurations.shards > 0)) {
+                System.out.println("--coalesce works with stp only, not with --failures, --shards or the compact engine.");
+                showHelp();
+                myResult = true;
+                return this;
+            }
+
+            // recordings hold a single epoch of a single process
+            if ((configurations.record != null || configurations.replay != null) &&
+                    (configurations.failures != null || configurations.shards > 0 ||
+                            (configurations.record != null && configurations.replay != null))) {
+                System.out.println("--record and --replay work without --failures, --shards and each other.");
                 showHelp();
                 myResult = true;
                 return this;
             }
 
-            Configurations.seedNetwork = sn;
-            Configurations.seedSync = ss;
+            configurations.seedNetwork = sn;
+            configurations.seedSync = ss;
             myResult = false;
             return this;
         }
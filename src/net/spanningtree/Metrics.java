@@ -0,0 +1,222 @@
+package net.spanningtree;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * Runtime metrics of a simulation: frames per state, inbox depth and tick duration
+ * histograms and how long it took the root to settle. Shared counters are striped
+ * (LongAdder) so ticking threads don't contend on them, per element counters are
+ * plain fields only written by the thread ticking that element. Histograms have
+ * power of two buckets. Most ticks find an empty inbox and take less time than
+ * reading the clock twice, so only one in SAMPLING ticks of every element is timed
+ * and its inbox depth recorded. When metrics are off call sites skip them with a
+ * single field check, like the event log.
+ */
+class Metrics implements MetricsMXBean {
+    static final String OBJECT_NAME = "net.spanningtree:type=Metrics";
+    private static final int BUCKETS = 64;
+    // power of two
+    static final int SAMPLING = 32;
+
+    final boolean enabled;
+    // set by the convergence detector owning these metrics
+    private Convergence convergence;
+    // by frame mode, frames bridges send to LAN segments and get back from them
+    private final LongAdder[] sent = adders(Bridge.States.values().length);
+    private final LongAdder[] received = adders(Bridge.States.values().length);
+    private final LongAdder[] inboxDepth = adders(BUCKETS);
+    private final LongAdder[] bridgeTicks = adders(BUCKETS);
+    private final LongAdder[] lanSegmentTicks = adders(BUCKETS);
+    private final LongAdder rootChanges = new LongAdder();
+    private final LongAccumulator firstRootChange = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator lastRootChange = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    /***
+     * @param enabled collect metrics or not
+     */
+    Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /***
+     * Disabled metrics
+     */
+    Metrics() {
+        this(false);
+    }
+
+    private static LongAdder[] adders(int length) {
+        final LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /***
+     * @param convergence detector whose phase and clock metrics report
+     */
+    void attach(Convergence convergence) {
+        this.convergence = convergence;
+    }
+
+    /***
+     * Frame delivered to an element inbox
+     * @param frame delivered frame
+     * @param receiver element frame is delivered to
+     */
+    void delivered(BridgeFrame frame, Element receiver) {
+        (receiver instanceof Bridge ? received : sent)[frame.getMode().ordinal()].increment();
+    }
+
+    /***
+     * Counts a tick of element
+     * @param element element about to tick
+     * @return true if the tick is sampled and has to be reported with ticked()
+     */
+    boolean sample(Element element) {
+        return (element.ticks++ & (SAMPLING - 1)) == 0;
+    }
+
+    /***
+     * Sampled tick finished
+     * @param element ticked element
+     * @param depth inbox size when tick started
+     * @param nanos tick duration
+     */
+    void ticked(Element element, int depth, long nanos) {
+        inboxDepth[bucket(depth)].increment();
+        (element instanceof Bridge ? bridgeTicks : lanSegmentTicks)[bucket(nanos)].increment();
+        element.tickNanos += nanos;
+    }
+
+    /***
+     * A bridge adopted a lower root id
+     */
+    void rootChanged() {
+        final long now = convergence.now();
+        rootChanges.increment();
+        firstRootChange.accumulate(now);
+        lastRootChange.accumulate(now);
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    /***
+     * Makes metrics visible to JConsole and other JMX clients
+     */
+    void register() {
+        if (!enabled)
+            return;
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            // a benchmark or sweep may run several simulations in one JVM, latest one wins
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new StandardMBean(this, MetricsMXBean.class, true), name);
+        } catch (JMException e) {
+            System.out.println("WARNING: metrics are not available over JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getPhase() {
+        return convergence.getPhase().name();
+    }
+
+    @Override
+    public Map<String, Long> getFramesSentByBridges() {
+        return byState(sent);
+    }
+
+    @Override
+    public Map<String, Long> getFramesReceivedByBridges() {
+        return byState(received);
+    }
+
+    @Override
+    public Map<String, Long> getInboxDepthHistogram() {
+        return histogram(inboxDepth);
+    }
+
+    @Override
+    public Map<String, Long> getBridgeTickNanosHistogram() {
+        return histogram(bridgeTicks);
+    }
+
+    @Override
+    public Map<String, Long> getLanSegmentTickNanosHistogram() {
+        return histogram(lanSegmentTicks);
+    }
+
+    @Override
+    public long getRootChanges() {
+        return rootChanges.sum();
+    }
+
+    @Override
+    public long getRootStabilizationMillis() {
+        final long first = firstRootChange.get();
+        return first == Long.MAX_VALUE ? 0 : lastRootChange.get() - first;
+    }
+
+    private static Map<String, Long> byState(LongAdder[] adders) {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        for (Bridge.States state : Bridge.States.values()) {
+            final long count = adders[state.ordinal()].sum();
+            if (count > 0)
+                map.put(state.name(), count);
+        }
+        return map;
+    }
+
+    /***
+     * @return non empty buckets keyed by "<=bound"
+     */
+    private static Map<String, Long> histogram(LongAdder[] adders) {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < adders.length; i++) {
+            final long count = adders[i].sum();
+            if (count > 0)
+                map.put("<=" + (i == 0 ? 0 : (1L << i) - 1), count);
+        }
+        return map;
+    }
+
+    /***
+     * Prints all metrics and the elements which spent most time ticking, as estimated
+     * from their sampled ticks
+     * @param bridges bridges of run
+     * @param lanSegments LAN segments of run
+     */
+    void printSummary(Collection<Bridge> bridges, Collection<LanSegment> lanSegments) {
+        if (!enabled)
+            return;
+        System.out.println("frames sent by bridges: " + getFramesSentByBridges());
+        System.out.println("frames received by bridges: " + getFramesReceivedByBridges());
+        System.out.println("inbox depth at tick, 1 in " + SAMPLING + " ticks: " + getInboxDepthHistogram());
+        System.out.println("bridge tick ns, 1 in " + SAMPLING + " ticks: " + getBridgeTickNanosHistogram());
+        System.out.println("LAN segment tick ns, 1 in " + SAMPLING + " ticks: " +
+                getLanSegmentTickNanosHistogram());
+        System.out.println("root changes: " + getRootChanges() + ", root stable after " +
+                getRootStabilizationMillis() + " ms");
+
+        final List<Element> elements = new ArrayList<>(bridges);
+        elements.addAll(lanSegments);
+        elements.sort(Comparator.comparingLong((Element e) -> e.tickNanos).reversed());
+        for (Element element : elements.subList(0, Math.min(5, elements.size()))) {
+            System.out.println(element.getId() + " ticked " + element.ticks + " times in about " +
+                    element.tickNanos * SAMPLING / 1000 + " us");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.spanningtree;
+
+import java.util.Map;
+
+/***
+ * JMX view of simulation metrics, registered as net.spanningtree:type=Metrics.
+ * Frame counts are keyed by the bridge state that created the frame, histograms
+ * by the upper bound of their power of two bucket and only cover sampled ticks.
+ */
+public interface MetricsMXBean {
+    String getPhase();
+
+    Map<String, Long> getFramesSentByBridges();
+
+    Map<String, Long> getFramesReceivedByBridges();
+
+    Map<String, Long> getInboxDepthHistogram();
+
+    Map<String, Long> getBridgeTickNanosHistogram();
+
+    Map<String, Long> getLanSegmentTickNanosHistogram();
+
+    long getRootChanges();
+
+    long getRootStabilizationMillis();
+}
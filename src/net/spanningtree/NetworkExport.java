@@ -0,0 +1,170 @@
+package net.spanningtree;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/***
+ * Streams network and final port states to a file Gephi can open. Format is chosen
+ * by file extension, .csv edge list, .graphml or .gexf, a trailing .gz compresses
+ * the output. Elements are written one at a time through a buffered writer on a
+ * file channel so memory use doesn't depend on network size.
+ * Every link is written once from its bridge side together with the state of that
+ * bridge port, LAN segments only show up as nodes.
+ */
+class NetworkExport {
+    enum Format {CSV, GRAPHML, GEXF}
+
+    private static final int BUFFER = 1 << 16;
+
+    /***
+     * @param file export file name
+     * @return format of file or null if extension is unknown
+     */
+    static Format formatOf(String file) {
+        final String name = file.toLowerCase().replaceFirst("\\.gz$", "");
+        if (name.endsWith(".csv"))
+            return Format.CSV;
+        if (name.endsWith(".graphml"))
+            return Format.GRAPHML;
+        if (name.endsWith(".gexf"))
+            return Format.GEXF;
+        return null;
+    }
+
+    /***
+     * Writes network in the format of the file extension
+     * @param file output file
+     * @param bridges bridges with their final port states
+     * @param lanSegments LAN segments
+     */
+    static void export(String file, Collection<Bridge> bridges, Collection<LanSegment> lanSegments)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            if (file.toLowerCase().endsWith(".gz")) {
+                // exports are mostly repeated markup, fastest level still compresses well
+                stream = new GZIPOutputStream(stream, BUFFER) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            }
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER)) {
+                switch (formatOf(file)) {
+                    case CSV:
+                        writeCsv(out, bridges);
+                        break;
+                    case GRAPHML:
+                        writeGraphMl(out, bridges, lanSegments);
+                        break;
+                    case GEXF:
+                        writeGexf(out, bridges, lanSegments);
+                        break;
+                }
+            }
+        }
+    }
+
+    private static void writeCsv(Writer out, Collection<Bridge> bridges) throws IOException {
+        out.write("Source,Target,Type,Port,Status,Root,Cost\n");
+        for (Bridge bridge : bridges) {
+            for (int port = 0; port < bridge.portCount; port++) {
+                out.write(bridge.getId());
+                out.write(',');
+                out.write(bridge.neighbors[port].getId());
+                out.write(",Undirected,");
+                out.write(Integer.toString(bridge.portIds[port]));
+                out.write(',');
+                out.write(status(bridge, port));
+                out.write(',');
+                out.write(Integer.toString(bridge.getRootId()));
+                out.write(',');
+                out.write(Integer.toString(bridge.getCostToRoot()));
+                out.write('\n');
+            }
+        }
+    }
+
+    private static void writeGraphMl(Writer out, Collection<Bridge> bridges, Collection<LanSegment> lanSegments)
+            throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n" +
+                "  <key id=\"kind\" for=\"node\" attr.name=\"kind\" attr.type=\"string\"/>\n" +
+                "  <key id=\"root\" for=\"node\" attr.name=\"root\" attr.type=\"int\"/>\n" +
+                "  <key id=\"cost\" for=\"node\" attr.name=\"cost\" attr.type=\"int\"/>\n" +
+                "  <key id=\"port\" for=\"edge\" attr.name=\"port\" attr.type=\"int\"/>\n" +
+                "  <key id=\"status\" for=\"edge\" attr.name=\"status\" attr.type=\"string\"/>\n" +
+                "  <graph edgedefault=\"undirected\">\n");
+        for (Bridge bridge : bridges) {
+            out.write("    <node id=\"" + bridge.getId() + "\"><data key=\"kind\">BRIDGE</data>" +
+                    "<data key=\"root\">" + bridge.getRootId() + "</data>" +
+                    "<data key=\"cost\">" + bridge.getCostToRoot() + "</data></node>\n");
+        }
+        for (LanSegment lanSegment : lanSegments) {
+            out.write("    <node id=\"" + lanSegment.getId() + "\"><data key=\"kind\">LAN</data></node>\n");
+        }
+        for (Bridge bridge : bridges) {
+            for (int port = 0; port < bridge.portCount; port++) {
+                out.write("    <edge source=\"" + bridge.getId() + "\" target=\"" +
+                        bridge.neighbors[port].getId() + "\"><data key=\"port\">" + bridge.portIds[port] +
+                        "</data><data key=\"status\">" + status(bridge, port) + "</data></edge>\n");
+            }
+        }
+        out.write("  </graph>\n</graphml>\n");
+    }
+
+    private static void writeGexf(Writer out, Collection<Bridge> bridges, Collection<LanSegment> lanSegments)
+            throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<gexf xmlns=\"http://www.gexf.net/1.2draft\" version=\"1.2\">\n" +
+                "  <graph mode=\"static\" defaultedgetype=\"undirected\">\n" +
+                "    <attributes class=\"node\">\n" +
+                "      <attribute id=\"0\" title=\"kind\" type=\"string\"/>\n" +
+                "      <attribute id=\"1\" title=\"root\" type=\"integer\"/>\n" +
+                "      <attribute id=\"2\" title=\"cost\" type=\"integer\"/>\n" +
+                "    </attributes>\n" +
+                "    <attributes class=\"edge\">\n" +
+                "      <attribute id=\"0\" title=\"port\" type=\"integer\"/>\n" +
+                "      <attribute id=\"1\" title=\"status\" type=\"string\"/>\n" +
+                "    </attributes>\n" +
+                "    <nodes>\n");
+        for (Bridge bridge : bridges) {
+            out.write("      <node id=\"" + bridge.getId() + "\" label=\"" + bridge.getId() + "\"><attvalues>" +
+                    "<attvalue for=\"0\" value=\"BRIDGE\"/>" +
+                    "<attvalue for=\"1\" value=\"" + bridge.getRootId() + "\"/>" +
+                    "<attvalue for=\"2\" value=\"" + bridge.getCostToRoot() + "\"/></attvalues></node>\n");
+        }
+        for (LanSegment lanSegment : lanSegments) {
+            out.write("      <node id=\"" + lanSegment.getId() + "\" label=\"" + lanSegment.getId() +
+                    "\"><attvalues><attvalue for=\"0\" value=\"LAN\"/></attvalues></node>\n");
+        }
+        out.write("    </nodes>\n    <edges>\n");
+        long edge = 0;
+        for (Bridge bridge : bridges) {
+            for (int port = 0; port < bridge.portCount; port++) {
+                out.write("      <edge id=\"" + edge++ + "\" source=\"" + bridge.getId() + "\" target=\"" +
+                        bridge.neighbors[port].getId() + "\"><attvalues>" +
+                        "<attvalue for=\"0\" value=\"" + bridge.portIds[port] + "\"/>" +
+                        "<attvalue for=\"1\" value=\"" + status(bridge, port) + "\"/></attvalues></edge>\n");
+            }
+        }
+        out.write("    </edges>\n  </graph>\n</gexf>\n");
+    }
+
+    private static String status(Bridge bridge, int port) {
+        final Bridge.PortStatus status = bridge.getPortStatus(port);
+        return status == null ? "UNDECIDED" : status.name();
+    }
+}
@@ -0,0 +1,440 @@
+package net.spanningtree;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/***
+ * Adapted network, bridges and LAN segments with their port tables, stored in a
+ * compact CSR layout so an experiment can rerun on the same network without
+ * generating the graph and running the adaptor again. All values are big endian
+ * ints:
+ * header      MAGIC, VERSION, bridges, LAN segments, ports, next port id
+ * ids         element ids, bridges first
+ * offsets     elements + 1 entries, ports of element e are offsets[e] to offsets[e + 1] - 1
+ * neighbors   element index at the other end of every port
+ * port ids    port id (MAC) of every port
+ * remotes     local port number of the same link on the neighbor side
+ * A snapshot is loaded through a read only memory map and copied into the port
+ * tables in bulk. Edge lists printed by --show-csv can be loaded as well.
+ * Element indexes, bridges first, are the same in every process loading the same
+ * file, shards of a sharded run refer to each other's elements by them.
+ */
+class NetworkSnapshot {
+    static final int MAGIC = 0x53545054; // "STPT"
+    static final int VERSION = 1;
+    private static final int HEADER = 6;
+    // Source,Target,Type row of --show-csv, anything else in its output is skipped
+    private static final Pattern CSV_ROW = Pattern.compile("[BN]\\d+,[BN]\\d+(,.*)?");
+
+    private final int bridgeCount;
+    private final int segmentCount;
+    private final int nextPortId;
+    private final IntBuffer ids;
+    private final IntBuffer offsets;
+    private final IntBuffer neighbors;
+    private final IntBuffer portIds;
+    private final IntBuffer remotes;
+
+    private NetworkSnapshot(int bridgeCount, int segmentCount, int nextPortId, IntBuffer ids,
+                            IntBuffer offsets, IntBuffer neighbors, IntBuffer portIds, IntBuffer remotes) {
+        this.bridgeCount = bridgeCount;
+        this.segmentCount = segmentCount;
+        this.nextPortId = nextPortId;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.portIds = portIds;
+        this.remotes = remotes;
+    }
+
+    /***
+     * Writes network to a snapshot file
+     * @param file output file
+     * @param bridges bridges to save
+     * @param lanSegments LAN segments to save
+     */
+    static void save(String file, Collection<Bridge> bridges, Collection<LanSegment> lanSegments)
+            throws IOException {
+        final List<Element> elements = new ArrayList<>(bridges.size() + lanSegments.size());
+        bridges.stream().sorted(Comparator.comparingInt(e -> e.id)).forEach(elements::add);
+        lanSegments.stream().sorted(Comparator.comparingInt(e -> e.id)).forEach(elements::add);
+        final Map<Element, Integer> indexes = new IdentityHashMap<>(elements.size());
+        long ports = 0;
+        int nextPortId = 0;
+        for (Element element : elements) {
+            indexes.put(element, indexes.size());
+            ports += element.portCount;
+            for (int port = 0; port < element.portCount; port++) {
+                nextPortId = Math.max(nextPortId, element.portIds[port] + 1);
+            }
+        }
+        final long size = 4L * (HEADER + 2L * elements.size() + 1 + 3 * ports);
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("network is too large for a snapshot: " + size + " bytes");
+
+        Files.deleteIfExists(Paths.get(file));
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final IntBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size).asIntBuffer();
+            out.put(MAGIC).put(VERSION).put(bridges.size()).put(lanSegments.size())
+                    .put((int) ports).put(nextPortId);
+            for (Element element : elements) {
+                out.put(element.id);
+            }
+            int offset = 0;
+            out.put(offset);
+            for (Element element : elements) {
+                out.put(offset += element.portCount);
+            }
+            for (Element element : elements) {
+                for (int port = 0; port < element.portCount; port++) {
+                    out.put(indexes.get(element.neighbors[port]));
+                }
+            }
+            for (Element element : elements) {
+                out.put(element.portIds, 0, element.portCount);
+            }
+            for (Element element : elements) {
+                out.put(element.remotePorts, 0, element.portCount);
+            }
+        }
+    }
+
+    /***
+     * Opens a snapshot or a --show-csv edge list, whichever the file contains
+     * @param file snapshot or CSV file
+     * @return loaded network, elements are created by build()
+     */
+    static NetworkSnapshot load(String file) throws IOException {
+        final Path path = Paths.get(file);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() >= 4 * HEADER) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt(0) == MAGIC)
+                    return mapped(file, buffer.asIntBuffer());
+            }
+        }
+        return importCsv(path);
+    }
+
+    /***
+     * @param file file to check
+     * @return true if file is a snapshot rather than an edge list
+     */
+    static boolean isSnapshot(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    private static NetworkSnapshot mapped(String file, IntBuffer in) throws IOException {
+        in.get();
+        if (in.get() != VERSION)
+            throw new IOException(file + " has an unsupported snapshot version");
+        final int bridgeCount = in.get();
+        final int segmentCount = in.get();
+        final int ports = in.get();
+        final int nextPortId = in.get();
+        final int elements = bridgeCount + segmentCount;
+        if (in.remaining() < 2L * elements + 1 + 3L * ports)
+            throw new IOException(file + " is truncated");
+        return new NetworkSnapshot(bridgeCount, segmentCount, nextPortId,
+                slice(in, elements), slice(in, elements + 1),
+                slice(in, ports), slice(in, ports), slice(in, ports));
+    }
+
+    private static IntBuffer slice(IntBuffer in, int length) {
+        final IntBuffer slice = in.slice();
+        slice.limit(length);
+        in.position(in.position() + length);
+        return slice;
+    }
+
+    /***
+     * Reads Source,Target,Type rows as printed by --show-csv. Every link is printed
+     * from both ends and the rows of an element are in its port order, so each
+     * element gets its ports back in the same order. Rows are paired by element and
+     * port, a link printed from one end only is an error. Other lines, like the rest
+     * of the output of a --show-csv run, are skipped.
+     */
+    private static NetworkSnapshot importCsv(Path path) throws IOException {
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<String> names = new ArrayList<>();
+        final List<List<Integer>> rows = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!CSV_ROW.matcher(line).matches())
+                    continue;
+                final String[] columns = line.split(",");
+                final int source = index(columns[0], indexes, names, rows);
+                rows.get(source).add(index(columns[1], indexes, names, rows));
+            }
+        }
+
+        // bridges first, each kind by id
+        final Integer[] sorted = new Integer[names.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, Comparator.comparing((Integer i) -> names.get(i).charAt(0) != 'B')
+                .thenComparingInt(i -> Integer.parseInt(names.get(i).substring(1))));
+        final int[] position = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            position[sorted[i]] = i;
+        }
+        final int[] ids = new int[sorted.length];
+        final List<List<Integer>> ports = new ArrayList<>(sorted.length);
+        int bridgeCount = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            final String name = names.get(sorted[i]);
+            ids[i] = Integer.parseInt(name.substring(1));
+            if (name.charAt(0) == 'B')
+                bridgeCount++;
+            final List<Integer> neighbors = new ArrayList<>(rows.get(sorted[i]).size());
+            for (int neighbor : rows.get(sorted[i])) {
+                neighbors.add(position[neighbor]);
+            }
+            ports.add(neighbors);
+        }
+
+        // k-th port from a to b pairs with the k-th port from b to a
+        final Map<Long, ArrayDeque<Integer>> unpaired = new HashMap<>();
+        for (int a = 0; a < ids.length; a++) {
+            for (int port = 0; port < ports.get(a).size(); port++) {
+                unpaired.computeIfAbsent(((long) a << 32) | ports.get(a).get(port), k -> new ArrayDeque<>())
+                        .add(port);
+            }
+        }
+        // per element and port, remote port and port id, -1 until paired
+        final int[][] remotes = new int[ids.length][];
+        final int[][] portIds = new int[ids.length][];
+        for (int a = 0; a < ids.length; a++) {
+            remotes[a] = new int[ports.get(a).size()];
+            Arrays.fill(remotes[a], -1);
+            portIds[a] = new int[ports.get(a).size()];
+        }
+        int nextPortId = 1;
+        for (int a = 0; a < ids.length; a++) {
+            for (int port = 0; port < ports.get(a).size(); port++) {
+                if (remotes[a][port] >= 0)
+                    continue;
+                final int b = ports.get(a).get(port);
+                unpaired.get(((long) a << 32) | b).removeFirstOccurrence(port);
+                final ArrayDeque<Integer> reverse = unpaired.get(((long) b << 32) | a);
+                if (reverse == null || reverse.isEmpty())
+                    throw new IOException(path + ": link " + names.get(sorted[a]) + "," + names.get(sorted[b]) +
+                            " has no row from " + names.get(sorted[b]));
+                final int remote = reverse.poll();
+                remotes[a][port] = remote;
+                remotes[b][remote] = port;
+                portIds[a][port] = nextPortId++;
+                portIds[b][remote] = nextPortId++;
+            }
+        }
+
+        final int[] offsets = new int[ids.length + 1];
+        for (int e = 0; e < ids.length; e++) {
+            offsets[e + 1] = offsets[e] + ports.get(e).size();
+        }
+        final int[] neighbors = new int[offsets[ids.length]];
+        final int[] portIdArray = new int[neighbors.length];
+        final int[] remoteArray = new int[neighbors.length];
+        for (int e = 0; e < ids.length; e++) {
+            for (int port = 0; port < ports.get(e).size(); port++) {
+                neighbors[offsets[e] + port] = ports.get(e).get(port);
+                portIdArray[offsets[e] + port] = portIds[e][port];
+                remoteArray[offsets[e] + port] = remotes[e][port];
+            }
+        }
+        return new NetworkSnapshot(bridgeCount, ids.length - bridgeCount, nextPortId, IntBuffer.wrap(ids),
+                IntBuffer.wrap(offsets), IntBuffer.wrap(neighbors), IntBuffer.wrap(portIdArray),
+                IntBuffer.wrap(remoteArray));
+    }
+
+    private static int index(String name, Map<String, Integer> indexes, List<String> names,
+                             List<List<Integer>> rows) {
+        return indexes.computeIfAbsent(name.trim(), key -> {
+            names.add(key);
+            rows.add(new ArrayList<>());
+            return names.size() - 1;
+        });
+    }
+
+    int getBridgeCount() {
+        return bridgeCount;
+    }
+
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /***
+     * @return number of bridges and LAN segments, element indexes run from 0 to this - 1
+     */
+    int getElementCount() {
+        return bridgeCount + segmentCount;
+    }
+
+    /***
+     * @param e element index
+     * @return bridge or LAN segment id of element
+     */
+    int idOf(int e) {
+        return ids.get(e);
+    }
+
+    /***
+     * @param e element index
+     * @return number of ports of element
+     */
+    int degreeOf(int e) {
+        return offsets.get(e + 1) - offsets.get(e);
+    }
+
+    /***
+     * @param e element index
+     * @param port local port number
+     * @return element index at the other end of port
+     */
+    int neighborOf(int e, int port) {
+        return neighbors.get(offsets.get(e) + port);
+    }
+
+    /***
+     * @param e element index, or the element count for the end of the last element
+     * @return port slot of the first port of element, the ports of an element have
+     * consecutive slots
+     */
+    int offsetOf(int e) {
+        return offsets.get(e);
+    }
+
+    /***
+     * @param slot port slot
+     * @return element index at the other end of the port
+     */
+    int neighborAt(int slot) {
+        return neighbors.get(slot);
+    }
+
+    /***
+     * @param slot port slot
+     * @return port id (MAC) of the port
+     */
+    int portIdAt(int slot) {
+        return portIds.get(slot);
+    }
+
+    /***
+     * @param slot port slot
+     * @return local port number of the same link on the neighbor side
+     */
+    int remotePortAt(int slot) {
+        return remotes.get(slot);
+    }
+
+    /***
+     * @return bytes of the port tables, off heap for a mapped snapshot
+     */
+    long getBytes() {
+        return 4L * (ids.limit() + offsets.limit() + 3L * neighbors.limit());
+    }
+
+    /***
+     * Creates bridges and LAN segments with their saved port tables
+     * @param bridges output parameter
+     * @param lanSegments output parameter
+     * @param simulation simulation the elements belong to
+     */
+    void build(HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments,
+               Simulation simulation) {
+        final int count = bridgeCount + segmentCount;
+        final Element[] elements = new Element[count];
+        for (int e = 0; e < count; e++) {
+            if (e < bridgeCount) {
+                final Bridge bridge = Bridge.create(ids.get(e), simulation);
+                bridges.put(bridge.id, bridge);
+                elements[e] = bridge;
+            } else {
+                final LanSegment lanSegment = new LanSegment(ids.get(e), simulation);
+                lanSegments.add(lanSegment);
+                elements[e] = lanSegment;
+            }
+        }
+        for (int e = 0; e < count; e++) {
+            final int from = offsets.get(e);
+            final int degree = offsets.get(e + 1) - from;
+            final Element[] ports = new Element[degree];
+            for (int port = 0; port < degree; port++) {
+                ports[port] = elements[neighbors.get(from + port)];
+            }
+            final int[] elementPortIds = new int[degree];
+            final int[] elementRemotes = new int[degree];
+            ((IntBuffer) portIds.position(from)).get(elementPortIds);
+            ((IntBuffer) remotes.position(from)).get(elementRemotes);
+            elements[e].setPorts(ports, elementPortIds, elementRemotes);
+        }
+        simulation.reservePortIds(nextPortId);
+    }
+
+    /***
+     * Creates only the elements of one shard, their neighbors on other shards are
+     * replaced by stand-ins
+     * @param shards shard of every element index
+     * @param shard shard to build
+     * @param local output parameter, element of every index of this shard
+     * @param remote stand-in for the element of an index on another shard
+     * @param bridges output parameter
+     * @param lanSegments output parameter
+     * @param simulation simulation the elements belong to
+     */
+    void buildShard(int[] shards, int shard, Element[] local, IntFunction<Element> remote,
+                    HashMap<Integer, Bridge> bridges, Set<LanSegment> lanSegments, Simulation simulation) {
+        final int count = bridgeCount + segmentCount;
+        for (int e = 0; e < count; e++) {
+            if (shards[e] != shard)
+                continue;
+            if (e < bridgeCount) {
+                final Bridge bridge = Bridge.create(ids.get(e), simulation);
+                bridges.put(bridge.id, bridge);
+                local[e] = bridge;
+            } else {
+                final LanSegment lanSegment = new LanSegment(ids.get(e), simulation);
+                lanSegments.add(lanSegment);
+                local[e] = lanSegment;
+            }
+        }
+        for (int e = 0; e < count; e++) {
+            if (local[e] == null)
+                continue;
+            final int from = offsets.get(e);
+            final int degree = offsets.get(e + 1) - from;
+            final Element[] ports = new Element[degree];
+            for (int port = 0; port < degree; port++) {
+                final int neighbor = neighbors.get(from + port);
+                ports[port] = shards[neighbor] == shard ? local[neighbor] : remote.apply(neighbor);
+            }
+            final int[] elementPortIds = new int[degree];
+            final int[] elementRemotes = new int[degree];
+            ((IntBuffer) portIds.position(from)).get(elementPortIds);
+            ((IntBuffer) remotes.position(from)).get(elementRemotes);
+            local[e].setPorts(ports, elementPortIds, elementRemotes);
+        }
+        simulation.reservePortIds(nextPortId);
+    }
+}
@@ -0,0 +1,42 @@
+package net.spanningtree;
+
+import java.util.Collection;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/***
+ * Distributed mode where every element still ticks independently and concurrently
+ * but tick loops are multiplexed over a fixed pool of threads instead of a
+ * dedicated timer thread per element. Elements are parked in the scheduler queue
+ * between periods so memory per element is a queue entry rather than a thread stack.
+ */
+class PoolEngine extends Engine {
+    private final int threads;
+
+    PoolEngine(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    void run(Collection<Bridge> bridges, Collection<LanSegment> lanSegments,
+             Convergence convergence) {
+        long started = System.nanoTime();
+        convergence.start();
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads);
+        // cancelled elements must not stay in the scheduler queue
+        executor.setRemoveOnCancelPolicy(true);
+
+        startOrder(lanSegments).forEach(p -> p.start(executor));
+        startOrder(bridges).forEach(p -> p.start(executor));
+
+        // wait until all bridges all done.
+        try {
+            convergence.awaitStopped();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lanSegments.forEach(Element::stop);
+            executor.shutdownNow();
+        }
+        printUsage(started);
+    }
+}
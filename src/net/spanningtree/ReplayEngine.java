@@ -0,0 +1,143 @@
+package net.spanningtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/***
+ * Replays a DeliveryRecorder file on the network it was recorded on. A single
+ * thread reads the recorded ticks in file order, scripts the inbox of the bridge
+ * with the recorded poll results, sets the recorded phase and ticks the bridge, no
+ * timers and no LAN segments involved, so a run of minutes replays as fast as the
+ * bridges can step. Ticks of one bridge are in the order they happened, ticks of
+ * different bridges are independent of each other by construction. A tick which
+ * leaves scripted results unpolled diverged from the recording, the final tree is
+ * compared with the recorded fingerprint.
+ */
+class ReplayEngine extends Engine {
+    private final String file;
+    private final ByteBuffer recording;
+
+    /***
+     * @param file recording to replay
+     */
+    ReplayEngine(String file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to replay");
+            recording = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (recording.remaining() < 20 || recording.getInt(0) != DeliveryRecorder.MAGIC)
+            throw new IOException(file + " is not a recording");
+        if (recording.getInt(4) != DeliveryRecorder.VERSION)
+            throw new IOException(file + " has an unsupported recording version");
+    }
+
+    @Override
+    void run(Collection<Bridge> bridges, Collection<LanSegment> lanSegments,
+             Convergence convergence) {
+        // every run replays from the start
+        final ByteBuffer in = recording.duplicate();
+        in.position(8);
+        final int recordedBridges = in.getInt();
+        final int recordedSegments = in.getInt();
+        final int recordedBudget = in.getInt();
+        if (recordedBridges != bridges.size() || recordedSegments != lanSegments.size()) {
+            System.out.println("replay: " + file + " was recorded on " + recordedBridges + " bridges and " +
+                    recordedSegments + " LAN segments, not on this network");
+            return;
+        }
+        // bridges put frames aside depending on how many they handle per tick
+        if (!bridges.isEmpty() && bridges.iterator().next().simulation.configurations.budget != recordedBudget) {
+            System.out.println("replay: " + file + " was recorded with a different --budget");
+            return;
+        }
+        final Element[] bridgeById = byId(bridges);
+        final Element[] segmentById = byId(lanSegments);
+        final Bridge.States[] modes = Bridge.States.values();
+        final Convergence.Phase[] phases = Convergence.Phase.values();
+        BridgeFrame[] frames = new BridgeFrame[16];
+        int[] ports = new int[16];
+        // nothing is delivered but what the recording says
+        for (Bridge bridge : bridges) {
+            bridge.frameQueue.script(frames, ports, 0);
+        }
+        for (LanSegment segment : lanSegments) {
+            segment.frameQueue.script(frames, ports, 0);
+        }
+        final long[] ticks = new long[bridgeById.length];
+        final long[] now = new long[1];
+        convergence.start(() -> now[0]);
+
+        final long started = System.nanoTime();
+        long replayed = 0;
+        long diverged = 0;
+        int ref;
+        while ((ref = DeliveryRecorder.getVarint(in)) != 0) {
+            final Bridge bridge = (Bridge) bridgeById[ref - 1];
+            final Convergence.Phase phase = phases[DeliveryRecorder.getVarint(in)];
+            final int polls = DeliveryRecorder.getVarint(in);
+            final int repeat = polls == 0 ? DeliveryRecorder.getVarint(in) : 1;
+            if (polls > frames.length) {
+                frames = new BridgeFrame[Math.max(polls, 2 * frames.length)];
+                ports = new int[frames.length];
+            }
+            for (int i = 0; i < polls; i++) {
+                final int port = DeliveryRecorder.getVarint(in) - 1;
+                if (port < 0) {
+                    frames[i] = null;
+                    continue;
+                }
+                final int sender = DeliveryRecorder.getVarint(in);
+                final Element element = (sender & 1) == 0 ? bridgeById[sender >>> 1] : segmentById[sender >>> 1];
+                // locals keep the fields in file order
+                final Bridge.States mode = modes[DeliveryRecorder.getVarint(in)];
+                final int message = DeliveryRecorder.getVarint(in);
+                final int cost = DeliveryRecorder.getVarint(in);
+                final int tieBreaker = DeliveryRecorder.getVarint(in);
+                final int flags = DeliveryRecorder.getVarint(in);
+                frames[i] = BridgeFrame.decoded(element, message, mode, cost, tieBreaker, flags);
+                ports[i] = port;
+            }
+            convergence.replay(phase);
+            for (int r = 0; r < repeat; r++) {
+                // same virtual time as the bridge's own tick count in the event engine
+                now[0] = ++ticks[bridge.id] * Element.PERIOD;
+                bridge.frameQueue.script(frames, ports, polls);
+                bridge.tick();
+                if (bridge.frameQueue.unscripted() > 0)
+                    diverged++;
+            }
+            replayed += repeat;
+        }
+        final long recorded = DeliveryRecorder.getVarlong(in);
+        final long fingerprint = in.getLong();
+        final long elapsed = Math.max(1, (System.nanoTime() - started) / 1000000);
+
+        lanSegments.forEach(Element::stop);
+        if (quiet)
+            return;
+        final boolean matches = TreeSummary.of(bridges).getFingerprint() == fingerprint;
+        System.out.println("replay: " + replayed + " of " + recorded + " ticks in " + elapsed + " ms, " +
+                replayed * 1000 / elapsed + " ticks/s, " + diverged + " ticks diverged");
+        System.out.println("replay: final tree " + (matches ? "matches" : "differs from") + " the recording, " +
+                TreeSummary.of(bridges));
+        printUsage(started);
+    }
+
+    private static Element[] byId(Collection<? extends Element> elements) {
+        int max = -1;
+        for (Element element : elements) {
+            max = Math.max(max, element.id);
+        }
+        final Element[] byId = new Element[max + 1];
+        for (Element element : elements) {
+            byId[element.id] = element;
+        }
+        return byId;
+    }
+}
@@ -0,0 +1,31 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+/***
+ * Metro style ring of rings: about sqrt(n) access rings of about sqrt(n) bridges,
+ * each ring is dual homed to two backbone rings through its first and middle
+ * bridge. Deterministic, the seed and density are not used.
+ */
+class RingOfRingsTopology extends Topology {
+
+    @Override
+    UndirectedGraph<Integer, DefaultEdge> generate(int nodes, double density, long seed) {
+        final int size = Math.max(3, (int) Math.round(Math.sqrt(nodes)));
+        final int rings = Math.max(3, nodes / size);
+        final UndirectedGraph<Integer, DefaultEdge> g = emptyGraph(rings * size);
+
+        for (int r = 0; r < rings; r++) {
+            final int first = r * size;
+            for (int i = 0; i < size; i++) {
+                g.addEdge(first + i, first + (i + 1) % size);
+            }
+            // backbone rings through first and middle bridge of each ring
+            final int next = ((r + 1) % rings) * size;
+            g.addEdge(first, next);
+            g.addEdge(first + size / 2, next + size / 2);
+        }
+        return g;
+    }
+}
@@ -0,0 +1,498 @@
+package net.spanningtree;
+
+import java.util.Arrays;
+
+/***
+ * Rapid spanning tree (802.1w) bridge. Instead of global phases every bridge keeps
+ * the best priority vector (root id, cost to root, designated bridge id, designated
+ * port id) heard on each port and recomputes port roles whenever one changes:
+ * the port with the best path to root is the root port, a port is designated if
+ * the bridge offers a better vector than anybody else on the LAN segment and
+ * alternate or backup, discarding, otherwise. BPDUs are only sent when something
+ * changes so the network falls quiet once it converged. Without periodic hellos
+ * stored vectors can't age, so a port which stops being designated sends its new
+ * role once and the others on its segment drop the vector it sent before.
+ * A designated port on a point to point segment proposes and forwards as soon as
+ * the other end agrees, the other end first blocks its own designated ports (sync)
+ * and proposes on them in turn, so the handshake sweeps away from the root. On a
+ * shared segment a designated port forwards after FORWARD_DELAY ticks instead, a
+ * port alone on its segment is an edge port and forwards right away. Pending
+ * timers count as work so the convergence detector only fires once every port
+ * reached its final state.
+ */
+class RstpBridge extends Bridge {
+    enum Role {ROOT, DESIGNATED, ALTERNATE, BACKUP, DISABLED}
+
+    // BPDU flags, the role bits describe the sending port
+    static final int PROPOSAL = 1;
+    static final int AGREEMENT = 2;
+    static final int DESIGNATED = 4;
+    static final int ROOT = 8;
+    // learning plus listening in ticks, a tick standing in for the hello time
+    static final int FORWARD_DELAY = 15;
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private int rootId = id;
+    private int costToRoot = 0;
+    private int rootPort = NO_PORT;
+    private long time = 0;
+    private boolean started = false;
+    // root information older than this can't describe a loop free path, dropping it
+    // ends counting to infinity after the root fails like MaxAge does
+    private final int maxAge;
+    private int joinedEpoch = 0;
+    // root port and vector last agreed to, repeated proposals for them need no sync
+    private int agreedPort = NO_PORT;
+    private int agreedRoot = NONE;
+    private int agreedCost = 0;
+
+    // per local port, best vector received from a designated port, infoRoot NONE if none
+    private int[] infoRoot = new int[0];
+    private int[] infoCost = new int[0];
+    private int[] infoBridge = new int[0];
+    private int[] infoPort = new int[0];
+    // per local port, ordinal of Role
+    private byte[] roles = new byte[0];
+    private boolean[] forwarding = new boolean[0];
+    // ticks left until a designated port on a shared segment forwards, 0 if not waiting
+    private int[] delay = new int[0];
+    // port has to send a BPDU at the end of this tick
+    private boolean[] newInfo = new boolean[0];
+
+    RstpBridge(int id, Simulation simulation) {
+        super(id, simulation);
+        maxAge = convergence.getBridges();
+        convergence.singlePhase();
+    }
+
+    @Override
+    void growPorts(int capacity) {
+        final int length = roles.length;
+        infoRoot = Arrays.copyOf(infoRoot, capacity);
+        Arrays.fill(infoRoot, length, capacity, NONE);
+        infoCost = Arrays.copyOf(infoCost, capacity);
+        infoBridge = Arrays.copyOf(infoBridge, capacity);
+        infoPort = Arrays.copyOf(infoPort, capacity);
+        roles = Arrays.copyOf(roles, capacity);
+        Arrays.fill(roles, length, capacity, (byte) Role.DESIGNATED.ordinal());
+        forwarding = Arrays.copyOf(forwarding, capacity);
+        delay = Arrays.copyOf(delay, capacity);
+        newInfo = Arrays.copyOf(newInfo, capacity);
+    }
+
+    Role getRole(int port) {
+        return Role.values()[roles[port]];
+    }
+
+    @Override
+    boolean isForwarding(int port) {
+        return forwarding[port];
+    }
+
+    @Override
+    PortStatus getPortStatus(int port) {
+        switch (getRole(port)) {
+            case ROOT:
+                return PortStatus.RP;
+            case DESIGNATED:
+                return PortStatus.DP;
+            case DISABLED:
+                return PortStatus.DISABLED;
+            default:
+                return PortStatus.BLOCKED;
+        }
+    }
+
+    @Override
+    int getRootId() {
+        return rootId;
+    }
+
+    @Override
+    int getCostToRoot() {
+        return costToRoot;
+    }
+
+    /***
+     * @return true if the LAN segment of port connects no other bridge
+     */
+    private boolean isEdge(int port) {
+        return bridgesOn(port) == 1;
+    }
+
+    /***
+     * @return true if the LAN segment of port connects exactly one other bridge
+     */
+    private boolean isPointToPoint(int port) {
+        return bridgesOn(port) == 2;
+    }
+
+    /***
+     * @return number of bridges whose link to the LAN segment of port is up
+     */
+    private int bridgesOn(int port) {
+        final Element lanSegment = neighbors[port];
+        int count = 0;
+        for (int i = 0; i < lanSegment.portCount; i++) {
+            if (lanSegment.isPortUp(i))
+                count++;
+        }
+        return count;
+    }
+
+    @Override
+    void step() {
+        time++;
+        if (!started) {
+            // every port starts out designated for its segment, proposing itself as root
+            started = true;
+            for (int port = 0; port < portCount; port++) {
+                designate(port);
+            }
+            transmit();
+            convergence.done();
+        }
+
+        // every queued BPDU is handled right away, proposals and agreements travel as
+        // fast as frames do instead of one hop per tick
+        BridgeFrame frame;
+        int handled = 0;
+        while ((frame = frameQueue.poll()) != null) {
+            final int port = frameQueue.polledPort();
+            // frames which made it in before the link went down are lost with it
+            if (isPortUp(port)) {
+                if (frame.getMode() == States.RSTP_BPDU)
+                    received(port, frame);
+                else if (frame.getMode() == States.TOPOLOGY_CHANGE)
+                    segmentChanged(port, frame.getMessage() == 1);
+            }
+            handled++;
+        }
+        // a port sends its latest vector once per tick however often it changed,
+        // frames are consumed only after that so the network can't look quiet before
+        if (handled > 0) {
+            transmit();
+            convergence.consumed(handled);
+        }
+
+        for (int port = 0; port < portCount; port++) {
+            if (delay[port] > 0 && --delay[port] == 0) {
+                forwarding[port] = true;
+                if (log.enabled)
+                    record(EventLog.PORT_STATE, port, 0);
+                convergence.done();
+            }
+        }
+
+        if (convergence.finished()) {
+            if (log.enabled) {
+                for (int port = 0; port < portCount; port++) {
+                    record(EventLog.PORT_STATE, port, 0);
+                }
+            }
+            stop();
+            convergence.bridgeStopped();
+        }
+    }
+
+    /***
+     * Handles a BPDU. A designated port holds its own vector, anything better is
+     * stored and anything worse answered, other ports store better vectors and
+     * updates of the bridge they heard from. Then proposals and agreements are handled.
+     * @param port local port frame arrived at
+     * @param frame received BPDU
+     */
+    private void received(int port, BridgeFrame frame) {
+        final int flags = frame.getFlags();
+        final int root = frame.getMessage();
+        final int cost = frame.getCost();
+        final int bridge = frame.getSender().id;
+        final int portId = frame.getTieBreaker();
+        if ((flags & DESIGNATED) != 0) {
+            final boolean sameDesignated = infoRoot[port] != NONE && infoBridge[port] == bridge &&
+                    infoPort[port] == portId;
+            final boolean superior = infoRoot[port] == NONE ?
+                    better(root, cost, bridge, portId, rootId, costToRoot, id, portIds[port]) :
+                    better(root, cost, bridge, portId, infoRoot[port], infoCost[port], infoBridge[port],
+                            infoPort[port]);
+            if (cost + 1 >= maxAge) {
+                // aged out on its way
+                if (sameDesignated)
+                    infoLost(port);
+            } else if (sameDesignated || superior) {
+                if (!sameDesignated || infoRoot[port] != root || infoCost[port] != cost) {
+                    infoRoot[port] = root;
+                    infoCost[port] = cost;
+                    infoBridge[port] = bridge;
+                    infoPort[port] = portId;
+                    updateRoles();
+                }
+            } else if (roles[port] == Role.DESIGNATED.ordinal()) {
+                // somebody worse claims the segment, tell it better
+                newInfo[port] = true;
+            }
+        } else if (infoRoot[port] != NONE && infoBridge[port] == bridge && infoPort[port] == portId) {
+            // the designated port stepped back, its vector is stale
+            infoLost(port);
+        }
+
+        final int role = roles[port];
+        if ((flags & PROPOSAL) != 0) {
+            if (role == Role.ROOT.ordinal()) {
+                if (agreedPort != port || agreedRoot != rootId || agreedCost != costToRoot) {
+                    sync();
+                    agreedPort = port;
+                    agreedRoot = rootId;
+                    agreedCost = costToRoot;
+                }
+                agree(port);
+            } else if (role == Role.ALTERNATE.ordinal() || role == Role.BACKUP.ordinal()) {
+                // discarding anyway
+                agree(port);
+            }
+        }
+        if ((flags & AGREEMENT) != 0 && role == Role.DESIGNATED.ordinal() && !forwarding[port] &&
+                root == rootId) {
+            forwarding[port] = true;
+            if (log.enabled)
+                record(EventLog.PORT_STATE, port, 0);
+        }
+    }
+
+    /***
+     * Another bridge lost its link to a LAN segment
+     * @param port local port of the segment
+     * @param designatedLost the lost bridge was designated for the segment
+     */
+    private void segmentChanged(int port, boolean designatedLost) {
+        if (designatedLost)
+            infoLost(port);
+        // a proposal nobody is left to agree to, or a segment left to this bridge alone
+        if (roles[port] == Role.DESIGNATED.ordinal() && !forwarding[port])
+            designate(port);
+    }
+
+    /***
+     * Designated bridge of a LAN segment is gone, its vector ages out at once
+     * @param port local port of the segment
+     */
+    private void infoLost(int port) {
+        if (infoRoot[port] == NONE)
+            return;
+        infoRoot[port] = NONE;
+        updateRoles();
+    }
+
+    /***
+     * Blocks all designated ports which are not edge ports before agreeing to a new
+     * root port, they propose again to get forwarding
+     */
+    private void sync() {
+        for (int port = 0; port < portCount; port++) {
+            if (roles[port] == Role.DESIGNATED.ordinal() && forwarding[port] && !isEdge(port)) {
+                forwarding[port] = false;
+                designate(port);
+            }
+        }
+    }
+
+    private void agree(int port) {
+        if (roles[port] == Role.ROOT.ordinal())
+            forwarding[port] = true;
+        final int role = roles[port] == Role.ROOT.ordinal() ? ROOT : 0;
+        send(port, BridgeFrame.bpdu(this, rootId, costToRoot, portIds[port], role | AGREEMENT));
+    }
+
+    /***
+     * Recomputes root port, cost to root and the role of every port from the stored
+     * vectors, ports whose role or vector changed send a BPDU
+     */
+    private void updateRoles() {
+        int bestRoot = id;
+        int bestCost = 0;
+        int bestPort = NO_PORT;
+        for (int port = 0; port < portCount; port++) {
+            // own vectors heard back over a backup port never lead to root
+            if (infoRoot[port] == NONE || !isPortUp(port) || infoBridge[port] == id)
+                continue;
+            if (bestPort == NO_PORT ? better(infoRoot[port], infoCost[port] + 1, 0, 0, bestRoot, bestCost, 0, 0) :
+                    better(infoRoot[port], infoCost[port] + 1, infoBridge[port], infoPort[port],
+                            bestRoot, bestCost, infoBridge[bestPort], infoPort[bestPort])) {
+                bestRoot = infoRoot[port];
+                bestCost = infoCost[port] + 1;
+                bestPort = port;
+            }
+        }
+
+        final boolean changed = bestRoot != rootId || bestCost != costToRoot;
+        if (bestRoot != rootId) {
+            if (log.enabled)
+                record(EventLog.ROOT_CHANGED, bestPort, frameQueue.size());
+            if (metrics.enabled)
+                metrics.rootChanged();
+        }
+        if (changed || bestPort != rootPort)
+            join();
+        rootId = bestRoot;
+        costToRoot = bestCost;
+        rootPort = bestPort;
+
+        for (int port = 0; port < portCount; port++) {
+            final Role role;
+            if (!isPortUp(port))
+                role = Role.DISABLED;
+            else if (port == rootPort)
+                role = Role.ROOT;
+            else if (infoRoot[port] != NONE && better(infoRoot[port], infoCost[port], infoBridge[port],
+                    infoPort[port], rootId, costToRoot, id, portIds[port]))
+                role = infoBridge[port] == id ? Role.BACKUP : Role.ALTERNATE;
+            else
+                role = Role.DESIGNATED;
+            setRole(port, role);
+            if (role == Role.DESIGNATED) {
+                // the port holds its own vector from now on
+                infoRoot[port] = NONE;
+                if (changed)
+                    newInfo[port] = true;
+            }
+        }
+    }
+
+    private void setRole(int port, Role role) {
+        if (roles[port] == role.ordinal())
+            return;
+        // the others on the segment still hold the vector sent as designated
+        if (roles[port] == Role.DESIGNATED.ordinal() && role != Role.DISABLED)
+            newInfo[port] = true;
+        roles[port] = (byte) role.ordinal();
+        cancelDelay(port);
+        forwarding[port] = role == Role.ROOT;
+        if (role == Role.DESIGNATED)
+            designate(port);
+        if (log.enabled)
+            record(EventLog.PORT_STATE, port, 0);
+    }
+
+    /***
+     * Port became designated or was blocked by sync, it moves to forwarding as fast
+     * as its segment allows
+     * @param port local port number
+     */
+    private void designate(int port) {
+        newInfo[port] = true;
+        if (isEdge(port)) {
+            forwarding[port] = true;
+        } else if (!isPointToPoint(port) && delay[port] == 0) {
+            delay[port] = FORWARD_DELAY;
+            convergence.busy();
+        }
+    }
+
+    private void cancelDelay(int port) {
+        if (delay[port] > 0) {
+            delay[port] = 0;
+            convergence.done();
+        }
+    }
+
+    /***
+     * Sends a BPDU on every designated port with new information, not yet
+     * forwarding point to point ports propose. Ports which just stopped being
+     * designated send their new role instead.
+     */
+    private void transmit() {
+        for (int port = 0; port < portCount; port++) {
+            if (!newInfo[port])
+                continue;
+            newInfo[port] = false;
+            if (!isPortUp(port) || isEdge(port))
+                continue;
+            if (roles[port] != Role.DESIGNATED.ordinal()) {
+                final int role = roles[port] == Role.ROOT.ordinal() ? ROOT : 0;
+                send(port, BridgeFrame.bpdu(this, rootId, costToRoot, portIds[port], role));
+                continue;
+            }
+            final int proposal = !forwarding[port] && isPointToPoint(port) ? PROPOSAL : 0;
+            send(port, BridgeFrame.bpdu(this, rootId, costToRoot, portIds[port], DESIGNATED | proposal));
+        }
+    }
+
+    /***
+     * Counts this bridge as recomputed in the current topology change epoch
+     */
+    private void join() {
+        final int epoch = convergence.getEpoch();
+        if (epoch == 0 || joinedEpoch == epoch)
+            return;
+        joinedEpoch = epoch;
+        convergence.join();
+    }
+
+    /***
+     * @return true if vector a is better, that is lower, than vector b
+     */
+    private static boolean better(int rootA, int costA, int bridgeA, int portA,
+                                  int rootB, int costB, int bridgeB, int portB) {
+        if (rootA != rootB)
+            return rootA < rootB;
+        if (costA != costB)
+            return costA < costB;
+        if (bridgeA != bridgeB)
+            return bridgeA < bridgeB;
+        return portA < portB;
+    }
+
+    @Override
+    void linkDown(int port) {
+        if (!isPortUp(port))
+            return;
+        takeDown(port);
+        updateRoles();
+        transmit();
+    }
+
+    @Override
+    void linkUp(int port) {
+        if (isPortUp(port))
+            return;
+        setLinkUp(port, true);
+        join();
+        updateRoles();
+        // bridges on the segment answer the proposal, no need to tell them
+        transmit();
+    }
+
+    @Override
+    void kill() {
+        for (int port = 0; port < portCount; port++) {
+            if (isPortUp(port))
+                takeDown(port);
+        }
+        discardFrames();
+        stop();
+        convergence.bridgeStopped();
+    }
+
+    /***
+     * Disables a port, the others on its LAN segment forget this bridge if it was
+     * designated there and recheck whether their ports are edge or point to point
+     * @param port local port number
+     */
+    private void takeDown(int port) {
+        final boolean designated = roles[port] == Role.DESIGNATED.ordinal();
+        setRole(port, Role.DISABLED);
+        infoRoot[port] = NONE;
+        newInfo[port] = false;
+        setLinkUp(port, false);
+        neighbors[port].linkChanged(remotePorts[port], designated);
+    }
+
+    /***
+     * @param port local port number or NO_PORT
+     */
+    private void record(byte kind, int port, int value) {
+        final int status = port == NO_PORT ? 0 : getPortStatus(port).ordinal();
+        log.record(kind, this, time, (isAlive() ? States.STABLE : States.SHUTDOWN).ordinal(), status, rootId,
+                costToRoot, port == NO_PORT ? 0 : portIds[port], value);
+    }
+}
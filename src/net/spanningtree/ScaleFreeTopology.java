@@ -0,0 +1,58 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.SplittableRandom;
+
+/***
+ * Barabasi-Albert scale-free graph. Every new bridge attaches to m existing ones
+ * chosen proportionally to their degree, picking a uniform endpoint of the edges
+ * added so far gives that distribution in O(1). Preferential attachment depends on
+ * all earlier choices so this generator is sequential, O(n * m).
+ * Density means the same average degree as G(n,p): density * (n - 1). Each link
+ * adds one to the degree of both ends, so m is half of that.
+ */
+class ScaleFreeTopology extends Topology {
+
+    @Override
+    UndirectedGraph<Integer, DefaultEdge> generate(int nodes, double density, long seed) {
+        // average degree 2m, the one of G(n,p) of the given density, at least two links
+        final int m = (int) Math.max(2, Math.min(nodes - 1, Math.round(density * (nodes - 1) / 2)));
+        final UndirectedGraph<Integer, DefaultEdge> g = emptyGraph(nodes);
+        final SplittableRandom random = new SplittableRandom(seed);
+
+        // both endpoints of every edge, a vertex appears once per unit of degree
+        final int[] endpoints = new int[(int) Math.min(Integer.MAX_VALUE - 8, 2L * m * nodes)];
+        int size = 0;
+
+        // fully connected seed of m + 1 vertices
+        for (int v = 0; v <= m && v < nodes; v++) {
+            for (int w = 0; w < v; w++) {
+                g.addEdge(v, w);
+                endpoints[size++] = v;
+                endpoints[size++] = w;
+            }
+        }
+
+        final int[] targets = new int[m];
+        for (int v = m + 1; v < nodes; v++) {
+            int chosen = 0;
+            while (chosen < m) {
+                final int target = endpoints[random.nextInt(size)];
+                boolean duplicate = false;
+                for (int i = 0; i < chosen; i++) {
+                    duplicate |= targets[i] == target;
+                }
+                if (!duplicate)
+                    targets[chosen++] = target;
+            }
+            for (int target : targets) {
+                g.addEdge(v, target);
+                endpoints[size++] = v;
+                endpoints[size++] = target;
+            }
+        }
+        return g;
+    }
+}
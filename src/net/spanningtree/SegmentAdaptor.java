@@ -0,0 +1,37 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.List;
+
+/***
+ * Turns concept graph into LAN segments. Every concept edge must end up inside at
+ * least one segment so each pair of adjacent bridges shares a LAN.
+ */
+abstract class SegmentAdaptor {
+
+    /***
+     * Covers all edges of concept graph with cliques
+     * @param g concept graph
+     * @return bridge ids of every segment, in the order segments should be created
+     */
+    abstract List<int[]> segments(UndirectedGraph<Integer, DefaultEdge> g);
+
+    /***
+     * Creates adaptor by its command line name
+     * @param name adaptor name
+     * @param maxSegment maximum bridges per segment, zero for no limit
+     * @return adaptor or null if name is unknown
+     */
+    static SegmentAdaptor create(String name, int maxSegment) {
+        switch (name) {
+            case "exact":
+                return new CliqueSegmentAdaptor();
+            case "greedy":
+                return new GreedySegmentAdaptor(maxSegment);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package net.spanningtree;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Sharded run over several local worker processes, for networks whose elements
+ * don't fit in a single heap. Partitions the saved network, launches one ShardWorker
+ * JVM per shard and paces their lock-step rounds over loopback: after every round
+ * each worker reports its outstanding work, live bridges and frames, the coordinator
+ * sums them up and tells all workers to continue, to advance to the next phase once
+ * the work of all shards is zero, or to stop once no bridge is left. Virtual time is
+ * the round number, phases complete at round barriers, that is up to a round later
+ * than in a single process. Final states are collected for the tree summary.
+ * Control messages are length prefixed, workers exchange frames among themselves.
+ */
+class ShardCoordinator {
+    // replies to a round report
+    static final int CONTINUE = 0;
+    static final int ADVANCE = 1;
+    static final int STOP = 2;
+    // a worker which doesn't connect within this time failed to start
+    private static final int CONNECT_TIMEOUT = 60000;
+
+    private final Configurations configurations;
+    private final String snapshotFile;
+    private final int shards;
+
+    /***
+     * @param configurations settings of the run, number of shards and protocol
+     * @param snapshotFile saved network, every worker loads the same one
+     */
+    ShardCoordinator(Configurations configurations, String snapshotFile) {
+        this.configurations = configurations;
+        this.snapshotFile = snapshotFile;
+        this.shards = configurations.shards;
+    }
+
+    /***
+     * Sends a length prefixed message over a blocking channel
+     * @param channel channel to write to
+     * @param message message between position and limit
+     */
+    static void send(SocketChannel channel, ByteBuffer message) throws IOException {
+        final ByteBuffer length = ByteBuffer.allocate(4);
+        length.putInt(message.remaining()).flip();
+        // a single write, a small second segment would wait for the delayed ack
+        final ByteBuffer[] buffers = {length, message};
+        while (message.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    /***
+     * Receives a length prefixed message over a blocking channel
+     * @param channel channel to read from
+     * @return message, ready to read
+     */
+    static ByteBuffer receive(SocketChannel channel) throws IOException {
+        final ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length);
+        final ByteBuffer message = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, message);
+        message.flip();
+        return message;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new IOException("shard disconnected");
+        }
+    }
+
+    /***
+     * Runs the network on all shards until every bridge is done and prints the
+     * convergence report, throughput and per shard statistics
+     */
+    void run() throws IOException {
+        final NetworkSnapshot snapshot = NetworkSnapshot.load(snapshotFile);
+        final ShardPartition partition = new ShardPartition(snapshot, shards);
+        partition.printReport();
+
+        final List<Process> processes = new ArrayList<>();
+        final SocketChannel[] workers = new SocketChannel[shards];
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            for (int shard = 0; shard < shards; shard++) {
+                processes.add(launch(server.socket().getLocalPort(), shard));
+            }
+            final int[] meshPorts = new int[shards];
+            for (int connected = 0; connected < shards; connected++) {
+                final SocketChannel channel = accept(server, processes);
+                final ByteBuffer hello = receive(channel);
+                final int shard = hello.getInt();
+                workers[shard] = channel;
+                meshPorts[shard] = hello.getInt();
+            }
+
+            final int[] shardOf = partition.getShards();
+            final ByteBuffer setup = ByteBuffer.allocate(4 * (2 + shards + shardOf.length));
+            setup.putInt(shards);
+            for (int port : meshPorts) {
+                setup.putInt(port);
+            }
+            setup.putInt(shardOf.length);
+            setup.asIntBuffer().put(shardOf);
+            for (SocketChannel worker : workers) {
+                setup.clear();
+                send(worker, setup);
+            }
+            final String[] sizes = new String[shards];
+            for (int shard = 0; shard < shards; shard++) {
+                final ByteBuffer ready = receive(workers[shard]);
+                sizes[shard] = ready.getInt() + " bridges, " + ready.getInt() + " LAN segments, " + ready.getInt() +
+                        " stand-ins, " + ready.getLong() / (1 << 20) + " MB heap";
+            }
+
+            final long started = System.nanoTime();
+            run(workers, snapshot.getBridgeCount(), sizes, started);
+        } finally {
+            for (SocketChannel worker : workers) {
+                if (worker != null)
+                    worker.close();
+            }
+            for (Process process : processes) {
+                try {
+                    if (!process.waitFor(10, TimeUnit.SECONDS))
+                        process.destroy();
+                } catch (InterruptedException e) {
+                    process.destroy();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /***
+     * Starts a worker JVM with the class path and heap settings of this one
+     */
+    private Process launch(int port, int shard) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-Xmx") || argument.startsWith("-Xms"))
+                command.add(argument);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(Integer.toString(port));
+        command.add(Integer.toString(shard));
+        command.add(snapshotFile);
+        command.add(configurations.protocol);
+        command.add(Integer.toString(configurations.queueCapacity));
+        command.add(Integer.toString(configurations.budget));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /***
+     * Accepts the next worker, fails if a worker exits or none connects in time
+     */
+    private static SocketChannel accept(ServerSocketChannel server, List<Process> processes)
+            throws IOException {
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+            while (System.currentTimeMillis() < deadline) {
+                if (selector.select(1000) > 0) {
+                    final SocketChannel channel = server.accept();
+                    if (channel != null) {
+                        channel.configureBlocking(true);
+                        channel.socket().setTcpNoDelay(true);
+                        return channel;
+                    }
+                }
+                for (Process process : processes) {
+                    if (!process.isAlive())
+                        throw new IOException("shard worker exited with code " + process.exitValue());
+                }
+            }
+        }
+        throw new IOException("shard worker did not connect within " + CONNECT_TIMEOUT + " ms");
+    }
+
+    /***
+     * Paces rounds until no bridge is left, then collects the results
+     */
+    private void run(SocketChannel[] workers, int bridgeCount, String[] sizes, long started)
+            throws IOException {
+        final boolean singlePhase = configurations.protocol.equals("rstp");
+        final Convergence.Phase[] phases = Convergence.Phase.values();
+        final long[] completedAt = new long[phases.length];
+        final long[] framesAt = new long[phases.length];
+        Convergence.Phase phase = Convergence.Phase.ROOT;
+        final ByteBuffer reply = ByteBuffer.allocate(4);
+        long rounds = 0;
+        long frames = 0;
+        while (true) {
+            long work = 0;
+            int alive = 0;
+            frames = 0;
+            for (SocketChannel worker : workers) {
+                final ByteBuffer report = receive(worker);
+                work += report.getLong();
+                alive += report.getInt();
+                frames += report.getLong();
+            }
+            int command = CONTINUE;
+            if (alive == 0) {
+                command = STOP;
+            } else if (work == 0 && phase != Convergence.Phase.DONE) {
+                // network is quiet, same time stamp the single process clock would give
+                completedAt[phase.ordinal()] = rounds * Element.PERIOD;
+                framesAt[phase.ordinal()] = frames;
+                phase = singlePhase ? Convergence.Phase.DONE : phases[phase.ordinal() + 1];
+                command = ADVANCE;
+            }
+            for (SocketChannel worker : workers) {
+                reply.clear();
+                reply.putInt(command).flip();
+                send(worker, reply);
+            }
+            if (command == STOP)
+                break;
+            rounds++;
+        }
+        final long elapsed = Math.max(1, (System.nanoTime() - started) / 1000000);
+
+        printPhases(phase, completedAt, framesAt, frames, singlePhase);
+        System.out.println("rounds: " + rounds + ", shards: " + shards);
+        System.out.println("sharded: " + rounds + " rounds in " + elapsed + " ms, " + rounds * 1000 / elapsed +
+                " rounds/s, " + frames * 1000 / elapsed + " frames/s");
+
+        final List<int[]> states = new ArrayList<>(bridgeCount);
+        for (int shard = 0; shard < shards; shard++) {
+            final ByteBuffer result = receive(workers[shard]);
+            final long remoteFrames = result.getLong();
+            final long tick = result.getLong() / 1000000;
+            final long exchange = result.getLong() / 1000000;
+            final long barrier = result.getLong() / 1000000;
+            System.out.println("shard " + shard + ": " + sizes[shard] + ", " + remoteFrames +
+                    " frames to other shards, tick " + tick + " ms, exchange " + exchange + " ms, barrier " +
+                    barrier + " ms");
+            final int bridges = result.getInt();
+            for (int i = 0; i < bridges; i++) {
+                // id, root id, cost to root, port states
+                final int[] state = new int[3 + result.getInt(result.position() + 12)];
+                for (int k = 0; k < 3; k++) {
+                    state[k] = result.getInt();
+                }
+                result.getInt();
+                for (int k = 3; k < state.length; k++) {
+                    state[k] = result.getInt();
+                }
+                states.add(state);
+            }
+        }
+        states.sort(Comparator.comparingInt(state -> state[0]));
+        final TreeSummary summary = new TreeSummary();
+        for (int[] state : states) {
+            summary.addBridge(state[0], state[1], state[2]);
+            for (int k = 3; k < state.length; k++) {
+                summary.addPort(state[k]);
+            }
+        }
+        System.out.println(summary);
+    }
+
+    /***
+     * Prints time each phase took to converge and frames sent during it, like a
+     * single process run
+     */
+    private static void printPhases(Convergence.Phase reached, long[] completedAt, long[] framesAt, long frames,
+                                    boolean singlePhase) {
+        final boolean done = reached == Convergence.Phase.DONE;
+        if (singlePhase) {
+            System.out.println(done ? "converged in " + completedAt[0] + " ms with " + frames + " frames" :
+                    "did not converge");
+            return;
+        }
+        long previous = 0;
+        long previousFrames = 0;
+        for (Convergence.Phase p : Convergence.Phase.values()) {
+            if (p == Convergence.Phase.DONE)
+                break;
+            if (p == reached) {
+                System.out.println("phase " + p + " did not converge");
+                break;
+            }
+            System.out.println("phase " + p + " converged in " + (completedAt[p.ordinal()] - previous) +
+                    " ms with " + (framesAt[p.ordinal()] - previousFrames) + " frames");
+            previous = completedAt[p.ordinal()];
+            previousFrames = framesAt[p.ordinal()];
+        }
+        if (done)
+            System.out.println("converged in " + previous + " ms with " + frames + " frames");
+    }
+}
@@ -0,0 +1,247 @@
+package net.spanningtree;
+
+import java.util.Arrays;
+
+/***
+ * Partition of a saved network into the shards of a sharded run. Bridges are dealt
+ * out in BFS order in contiguous runs of about the same weight, their number of
+ * ports, so neighbors tend to land on the same shard. Greedy passes then move
+ * single bridges to a neighboring shard whenever that cuts fewer LAN segments, or
+ * as many but spreads them over fewer shards, as long as no shard grows beyond the
+ * balance tolerance. Every LAN segment finally goes to the shard holding most of
+ * its bridges. A LAN segment is cut when its bridges are on more than one shard,
+ * each link from it to a bridge of another shard carries frames between processes.
+ */
+class ShardPartition {
+    // largest shard weight above the average
+    private static final double TOLERANCE = 0.05;
+    private static final int PASSES = 4;
+
+    private final NetworkSnapshot snapshot;
+    private final int shards;
+    private final int bridgeCount;
+    // shard of every element index
+    private final int[] shardOf;
+    // per shard, total weight of its bridges
+    private final long[] weight;
+    // per LAN segment and shard, number of its bridges on that shard
+    private final int[] count;
+    // per LAN segment, number of shards its bridges are on
+    private final int[] spread;
+    private int cutSegments = 0;
+    private long cutLinks = 0;
+    private long links = 0;
+    private int moves = 0;
+    private final long elapsed;
+
+    /***
+     * @param snapshot network to partition
+     * @param shards number of shards
+     */
+    ShardPartition(NetworkSnapshot snapshot, int shards) {
+        final long started = System.nanoTime();
+        this.snapshot = snapshot;
+        this.shards = shards;
+        bridgeCount = snapshot.getBridgeCount();
+        shardOf = new int[snapshot.getElementCount()];
+        weight = new long[shards];
+        count = new int[snapshot.getSegmentCount() * shards];
+        spread = new int[snapshot.getSegmentCount()];
+
+        deal();
+        for (int b = 0; b < bridgeCount; b++) {
+            for (int port = 0; port < snapshot.degreeOf(b); port++) {
+                final int segment = snapshot.neighborOf(b, port) - bridgeCount;
+                if (count[segment * shards + shardOf[b]]++ == 0)
+                    spread[segment]++;
+            }
+        }
+        for (int pass = 0; pass < PASSES; pass++) {
+            if (refine() == 0)
+                break;
+        }
+        placeSegments();
+        elapsed = (System.nanoTime() - started) / 1000000;
+    }
+
+    /***
+     * @return shard of every element index
+     */
+    int[] getShards() {
+        return shardOf;
+    }
+
+    int getCutSegments() {
+        return cutSegments;
+    }
+
+    long getCutLinks() {
+        return cutLinks;
+    }
+
+    /***
+     * Prints shard sizes and how much of the network is cut
+     */
+    void printReport() {
+        final int[] bridges = new int[shards];
+        final int[] segments = new int[shards];
+        for (int e = 0; e < shardOf.length; e++) {
+            if (e < bridgeCount)
+                bridges[shardOf[e]]++;
+            else
+                segments[shardOf[e]]++;
+        }
+        System.out.println("partition: " + shards + " shards in " + elapsed + " ms, " + moves + " moves, bridges " +
+                Arrays.toString(bridges) + ", LAN segments " + Arrays.toString(segments));
+        System.out.println("partition: " + cutSegments + " of " + spread.length + " LAN segments cut, " + cutLinks +
+                " of " + links + " links cross shards");
+    }
+
+    private long weightOf(int bridge) {
+        return 1 + snapshot.degreeOf(bridge);
+    }
+
+    /***
+     * Deals bridges out in BFS order, every component starting at its lowest index
+     */
+    private void deal() {
+        long total = 0;
+        for (int b = 0; b < bridgeCount; b++) {
+            total += weightOf(b);
+        }
+        final boolean[] visited = new boolean[bridgeCount];
+        final boolean[] expanded = new boolean[snapshot.getSegmentCount()];
+        final int[] queue = new int[bridgeCount];
+        int shard = 0;
+        long dealt = 0;
+        for (int start = 0; start < bridgeCount; start++) {
+            if (visited[start])
+                continue;
+            visited[start] = true;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            while (head < tail) {
+                final int bridge = queue[head++];
+                // next shard once this one has its share
+                while (shard < shards - 1 && dealt >= total * (shard + 1) / shards) {
+                    shard++;
+                }
+                shardOf[bridge] = shard;
+                weight[shard] += weightOf(bridge);
+                dealt += weightOf(bridge);
+                for (int port = 0; port < snapshot.degreeOf(bridge); port++) {
+                    final int segment = snapshot.neighborOf(bridge, port);
+                    if (expanded[segment - bridgeCount])
+                        continue;
+                    expanded[segment - bridgeCount] = true;
+                    for (int p = 0; p < snapshot.degreeOf(segment); p++) {
+                        final int other = snapshot.neighborOf(segment, p);
+                        if (!visited[other]) {
+                            visited[other] = true;
+                            queue[tail++] = other;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /***
+     * One greedy pass over all bridges
+     * @return number of bridges moved
+     */
+    private int refine() {
+        long total = 0;
+        for (long w : weight) {
+            total += w;
+        }
+        final long limit = (long) (total * (1 + TOLERANCE) / shards) + 1;
+        int moved = 0;
+        for (int b = 0; b < bridgeCount; b++) {
+            final int from = shardOf[b];
+            int best = from;
+            int bestCut = 0;
+            int bestSpread = 0;
+            for (int port = 0; port < snapshot.degreeOf(b); port++) {
+                final int segment = snapshot.neighborOf(b, port) - bridgeCount;
+                for (int to = 0; to < shards; to++) {
+                    if (to == from || to == best || count[segment * shards + to] == 0 ||
+                            weight[to] + weightOf(b) > limit)
+                        continue;
+                    final int cutGain = gain(b, from, to, true);
+                    final int spreadGain = gain(b, from, to, false);
+                    if (cutGain > bestCut || (cutGain == bestCut && spreadGain > bestSpread)) {
+                        best = to;
+                        bestCut = cutGain;
+                        bestSpread = spreadGain;
+                    }
+                }
+            }
+            if (best != from) {
+                move(b, from, best);
+                moved++;
+            }
+        }
+        moves += moved;
+        return moved;
+    }
+
+    /***
+     * @param cut true for the change in cut LAN segments, false for the change in
+     * the number of shards LAN segments are spread over
+     * @return how much moving bridge from one shard to another reduces it
+     */
+    private int gain(int bridge, int from, int to, boolean cut) {
+        int gain = 0;
+        for (int port = 0; port < snapshot.degreeOf(bridge); port++) {
+            final int segment = snapshot.neighborOf(bridge, port) - bridgeCount;
+            final int before = spread[segment];
+            final int after = before - (count[segment * shards + from] == 1 ? 1 : 0) +
+                    (count[segment * shards + to] == 0 ? 1 : 0);
+            if (cut)
+                gain += (before > 1 ? 1 : 0) - (after > 1 ? 1 : 0);
+            else
+                gain += before - after;
+        }
+        return gain;
+    }
+
+    private void move(int bridge, int from, int to) {
+        for (int port = 0; port < snapshot.degreeOf(bridge); port++) {
+            final int segment = snapshot.neighborOf(bridge, port) - bridgeCount;
+            if (--count[segment * shards + from] == 0)
+                spread[segment]--;
+            if (count[segment * shards + to]++ == 0)
+                spread[segment]++;
+        }
+        weight[from] -= weightOf(bridge);
+        weight[to] += weightOf(bridge);
+        shardOf[bridge] = to;
+    }
+
+    /***
+     * Puts every LAN segment on the shard holding most of its bridges, on ties the
+     * one with the fewest LAN segment ports so far, and counts what is cut
+     */
+    private void placeSegments() {
+        final long[] load = new long[shards];
+        for (int segment = 0; segment < spread.length; segment++) {
+            int best = 0;
+            int degree = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                final int bridges = count[segment * shards + shard];
+                final int most = count[segment * shards + best];
+                degree += bridges;
+                if (bridges > most || (bridges == most && load[shard] < load[best]))
+                    best = shard;
+            }
+            shardOf[bridgeCount + segment] = best;
+            load[best] += degree;
+            links += degree;
+            if (spread[segment] > 1)
+                cutSegments++;
+            cutLinks += degree - count[segment * shards + best];
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package net.spanningtree;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+
+/***
+ * Worker process of a sharded run. Loads the saved network, builds only the bridges
+ * and LAN segments of its own shard, with stand-ins for their neighbors on other
+ * shards, and runs them in lock-step rounds paced by the coordinator. Frames sent to
+ * a stand-in are encoded into a batch per peer shard. At the end of every round all
+ * batches go out at once over non-blocking loopback channels and the frames received
+ * are delivered before the round is flipped, so a frame crossing shards becomes
+ * visible in the next round like any other. Convergence only counts the work of
+ * this shard, the coordinator sums it up at the round barrier.
+ * usage: ShardWorker coordinator-port shard snapshot protocol queue-capacity budget
+ */
+class ShardWorker {
+    // ints per encoded frame: target index, target port, sender kind, sender id, mode,
+    // message, cost, tie breaker, flags
+    private static final int FRAME_INTS = 9;
+    private static final int FRAME_BYTES = 4 * FRAME_INTS;
+    private static final Bridge.States[] MODES = Bridge.States.values();
+
+    private final int shard;
+    private final NetworkSnapshot snapshot;
+    private final Simulation simulation;
+    private final Convergence convergence;
+    private final SocketChannel coordinator;
+    private final ServerSocketChannel server;
+
+    private int shards;
+    // element of every index of this shard, null for the others
+    private Element[] local;
+    private final HashMap<Integer, Bridge> bridges = new HashMap<>();
+    private final HashSet<LanSegment> lanSegments = new HashSet<>();
+    // stand-ins by element index, senders of received frames by kind and id
+    private final Map<Integer, Stub> stubs = new HashMap<>();
+    private final Map<Long, Element> senders = new HashMap<>();
+
+    // per peer shard, null for this one
+    private SocketChannel[] peers;
+    private ByteBuffer[] out;
+    private ByteBuffer[] in;
+    private int[] outFrames;
+    private Selector selector;
+
+    private long rounds = 0;
+    private long remoteFrames = 0;
+    private long tickNanos = 0;
+    private long exchangeNanos = 0;
+    private long barrierNanos = 0;
+
+    /***
+     * Stand-in for an element of another shard. Frames sent to it are encoded into
+     * the batch of its shard, it also stands for the sender of received frames, only
+     * kind, id and number of ports of the real element are known.
+     */
+    private final class Stub extends Element {
+        private final int index;
+        private final int peer;
+        private final boolean bridge;
+
+        Stub(int index, int peer, boolean bridge, int id, int portCount, Simulation simulation) {
+            super(id, simulation);
+            this.index = index;
+            this.peer = peer;
+            this.bridge = bridge;
+            this.portCount = portCount;
+        }
+
+        @Override
+        void enqueue(int port, BridgeFrame frame) {
+            encode(peer, index, port, frame);
+        }
+
+        @Override
+        String getAbbreviation() {
+            return bridge ? "B" : "N";
+        }
+
+        @Override
+        void tick() {
+        }
+    }
+
+    /***
+     * @param port loopback port of the coordinator
+     * @param shard shard of this worker
+     * @param snapshotFile saved network, every worker loads the same one
+     * @param configurations settings of the run
+     */
+    private ShardWorker(int port, int shard, String snapshotFile, Configurations configurations)
+            throws IOException {
+        this.shard = shard;
+        snapshot = NetworkSnapshot.load(snapshotFile);
+        // all bridges of the network, RSTP derives its max age from them
+        simulation = new Simulation(configurations, snapshot.getBridgeCount());
+        convergence = simulation.convergence;
+        coordinator = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        coordinator.socket().setTcpNoDelay(true);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Configurations configurations = new Configurations();
+        configurations.protocol = args[3];
+        configurations.queueCapacity = Integer.parseInt(args[4]);
+        configurations.budget = Integer.parseInt(args[5]);
+        configurations.logLevel = EventLog.Level.OFF;
+        new ShardWorker(Integer.parseInt(args[0]), Integer.parseInt(args[1]), args[2], configurations).run();
+    }
+
+    private void run() throws IOException {
+        final ByteBuffer hello = ByteBuffer.allocate(8);
+        hello.putInt(shard).putInt(server.socket().getLocalPort()).flip();
+        ShardCoordinator.send(coordinator, hello);
+
+        final ByteBuffer setup = ShardCoordinator.receive(coordinator);
+        shards = setup.getInt();
+        final int[] meshPorts = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            meshPorts[i] = setup.getInt();
+        }
+        final int[] shardOf = new int[setup.getInt()];
+        setup.asIntBuffer().get(shardOf);
+
+        local = new Element[snapshot.getElementCount()];
+        snapshot.buildShard(shardOf, shard, local, index -> stubs.computeIfAbsent(index,
+                e -> new Stub(e, shardOf[e], e < snapshot.getBridgeCount(), snapshot.idOf(e),
+                        snapshot.degreeOf(e), simulation)), bridges, lanSegments, simulation);
+        convergence.shard(bridges.size());
+        for (Bridge bridge : bridges.values()) {
+            senders.put(key(true, bridge.id), bridge);
+        }
+        connectPeers(meshPorts);
+
+        final Runtime runtime = Runtime.getRuntime();
+        final ByteBuffer ready = ByteBuffer.allocate(20);
+        ready.putInt(bridges.size()).putInt(lanSegments.size()).putInt(stubs.size())
+                .putLong(runtime.totalMemory() - runtime.freeMemory()).flip();
+        ShardCoordinator.send(coordinator, ready);
+
+        final List<Element> elements = new ArrayList<>(lanSegments);
+        elements.addAll(bridges.values());
+        elements.forEach(Element::bufferRounds);
+        convergence.start(() -> rounds * Element.PERIOD);
+        final ByteBuffer report = ByteBuffer.allocate(20);
+        while (true) {
+            long started = System.nanoTime();
+            for (Element element : elements) {
+                if (element.isAlive())
+                    element.tick();
+            }
+            tickNanos += System.nanoTime() - started;
+
+            started = System.nanoTime();
+            exchange();
+            deliver();
+            // everything this round sent is in, publish it for the next one
+            elements.forEach(Element::flipRound);
+            exchangeNanos += System.nanoTime() - started;
+
+            started = System.nanoTime();
+            int alive = 0;
+            for (Bridge bridge : bridges.values()) {
+                if (bridge.isAlive())
+                    alive++;
+            }
+            report.clear();
+            report.putLong(convergence.getWork()).putInt(alive).putLong(convergence.getFrames()).flip();
+            ShardCoordinator.send(coordinator, report);
+            final int command = ShardCoordinator.receive(coordinator).getInt();
+            barrierNanos += System.nanoTime() - started;
+            if (command == ShardCoordinator.STOP)
+                break;
+            if (command == ShardCoordinator.ADVANCE)
+                convergence.advanceExternally();
+            rounds++;
+        }
+        lanSegments.forEach(Element::stop);
+        sendResult();
+        for (SocketChannel peer : peers) {
+            if (peer != null)
+                peer.close();
+        }
+        selector.close();
+        server.close();
+        coordinator.close();
+    }
+
+    /***
+     * Full mesh between workers, each one connects to the lower shards and accepts
+     * the higher ones, then all channels turn non-blocking
+     */
+    private void connectPeers(int[] meshPorts) throws IOException {
+        peers = new SocketChannel[shards];
+        out = new ByteBuffer[shards];
+        in = new ByteBuffer[shards];
+        outFrames = new int[shards];
+        for (int peer = 0; peer < shard; peer++) {
+            final SocketChannel channel = SocketChannel.open(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), meshPorts[peer]));
+            final ByteBuffer id = ByteBuffer.allocate(4);
+            id.putInt(shard).flip();
+            while (id.hasRemaining()) {
+                channel.write(id);
+            }
+            peers[peer] = channel;
+        }
+        for (int accepted = shard + 1; accepted < shards; accepted++) {
+            final SocketChannel channel = server.accept();
+            final ByteBuffer id = ByteBuffer.allocate(4);
+            while (id.hasRemaining()) {
+                if (channel.read(id) < 0)
+                    throw new IOException("shard " + shard + ": peer closed during setup");
+            }
+            peers[id.getInt(0)] = channel;
+        }
+        selector = Selector.open();
+        for (int peer = 0; peer < shards; peer++) {
+            if (peer == shard)
+                continue;
+            peers[peer].configureBlocking(false);
+            peers[peer].socket().setTcpNoDelay(true);
+            peers[peer].register(selector, 0, peer);
+            out[peer] = ByteBuffer.allocateDirect(1 << 16);
+            in[peer] = ByteBuffer.allocateDirect(1 << 16);
+            out[peer].putInt(0);
+        }
+    }
+
+    /***
+     * Appends a frame to the batch of a peer shard
+     */
+    private void encode(int peer, int target, int port, BridgeFrame frame) {
+        ByteBuffer batch = out[peer];
+        if (batch.remaining() < FRAME_BYTES) {
+            batch.flip();
+            out[peer] = ByteBuffer.allocateDirect(batch.capacity() * 2).put(batch);
+            batch = out[peer];
+        }
+        final Element sender = frame.getSender();
+        final boolean bridge = sender instanceof Stub ? ((Stub) sender).bridge : sender instanceof Bridge;
+        batch.putInt(target).putInt(port).putInt(bridge ? 0 : 1).putInt(sender.id)
+                .putInt(frame.getMode().ordinal()).putInt(frame.getMessage()).putInt(frame.getCost())
+                .putInt(frame.getTieBreaker()).putInt(frame.getFlags());
+        outFrames[peer]++;
+    }
+
+    /***
+     * Sends this round's batch to every peer and receives theirs, whichever channel
+     * is ready first. A batch is its number of frames followed by the frames.
+     */
+    private void exchange() throws IOException {
+        int pending = 0;
+        for (SelectionKey key : selector.keys()) {
+            final int peer = (Integer) key.attachment();
+            out[peer].putInt(0, outFrames[peer]).flip();
+            remoteFrames += outFrames[peer];
+            in[peer].clear().limit(4);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            pending += 2;
+        }
+        while (pending > 0) {
+            selector.select();
+            final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                final SelectionKey key = selected.next();
+                selected.remove();
+                final int peer = (Integer) key.attachment();
+                final SocketChannel channel = (SocketChannel) key.channel();
+                if (key.isWritable()) {
+                    channel.write(out[peer]);
+                    if (!out[peer].hasRemaining()) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        pending--;
+                    }
+                }
+                if (key.isReadable() && received(peer, channel)) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    pending--;
+                }
+            }
+        }
+        for (int peer = 0; peer < shards; peer++) {
+            if (peer == shard)
+                continue;
+            out[peer].clear();
+            out[peer].putInt(0);
+            outFrames[peer] = 0;
+        }
+    }
+
+    /***
+     * Reads what is available of a peer's batch, never beyond it
+     * @return true once the batch is complete
+     */
+    private boolean received(int peer, SocketChannel channel) throws IOException {
+        ByteBuffer batch = in[peer];
+        if (channel.read(batch) < 0)
+            throw new IOException("shard " + shard + ": shard " + peer + " disconnected");
+        if (batch.hasRemaining())
+            return false;
+        if (batch.limit() == 4) {
+            final int length = 4 + batch.getInt(0) * FRAME_BYTES;
+            if (length > batch.capacity()) {
+                batch.flip();
+                in[peer] = ByteBuffer.allocateDirect(Integer.highestOneBit(length) * 2).put(batch);
+                batch = in[peer];
+            }
+            batch.limit(length);
+            return !batch.hasRemaining() || received(peer, channel);
+        }
+        return true;
+    }
+
+    /***
+     * Enqueues the received frames at their elements, they count as sent here
+     */
+    private void deliver() {
+        for (int peer = 0; peer < shards; peer++) {
+            if (peer == shard)
+                continue;
+            final ByteBuffer batch = in[peer];
+            batch.flip().position(4);
+            final int frames = batch.getInt(0);
+            for (int i = 0; i < frames; i++) {
+                final Element target = local[batch.getInt()];
+                final int port = batch.getInt();
+                final boolean bridge = batch.getInt() == 0;
+                final Element sender = sender(bridge, batch.getInt());
+                final Bridge.States mode = MODES[batch.getInt()];
+                final int message = batch.getInt();
+                final int cost = batch.getInt();
+                final int tieBreaker = batch.getInt();
+                target.enqueue(port, BridgeFrame.decoded(sender, message, mode, cost, tieBreaker, batch.getInt()));
+            }
+        }
+    }
+
+    /***
+     * @return local bridge or stand-in with the given kind and id, elements only
+     * read the id of the sender
+     */
+    private Element sender(boolean bridge, int id) {
+        final long key = key(bridge, id);
+        Element sender = senders.get(key);
+        if (sender == null) {
+            sender = new Stub(-1, -1, bridge, id, 0, simulation);
+            senders.put(key, sender);
+        }
+        return sender;
+    }
+
+    private static long key(boolean bridge, int id) {
+        return (bridge ? 0 : 1L << 32) | (id & 0xffffffffL);
+    }
+
+    /***
+     * Sends statistics, then root, cost and port states of every local bridge to
+     * the coordinator
+     */
+    private void sendResult() throws IOException {
+        int size = 8 * 4 + 4;
+        for (Bridge bridge : bridges.values()) {
+            size += 4 * (4 + bridge.portCount);
+        }
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        result.putLong(remoteFrames).putLong(tickNanos).putLong(exchangeNanos)
+                .putLong(barrierNanos).putInt(bridges.size());
+        for (Bridge bridge : bridges.values()) {
+            result.putInt(bridge.id).putInt(bridge.getRootId()).putInt(bridge.getCostToRoot())
+                    .putInt(bridge.portCount);
+            for (int port = 0; port < bridge.portCount; port++) {
+                final Bridge.PortStatus status = bridge.getPortStatus(port);
+                result.putInt(status == null ? -1 : status.ordinal());
+            }
+        }
+        result.flip();
+        ShardCoordinator.send(coordinator, result);
+    }
+}
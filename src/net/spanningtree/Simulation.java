@@ -0,0 +1,65 @@
+package net.spanningtree;
+
+import java.util.Random;
+
+/***
+ * Context of a single simulation run, its settings and everything the elements of
+ * one network share: convergence detector, event log, metrics, the random source
+ * of start offsets and port id (MAC) numbering. Nothing of it is static so any
+ * number of simulations can run in one JVM at the same time, as sweeps do.
+ */
+class Simulation {
+    final Configurations configurations;
+    final Convergence convergence;
+    final EventLog log;
+    final Metrics metrics;
+    // start offsets, drawn in element start order so a seed always gives the same offsets
+    private final Random random;
+    // takes care of redundant port ids (MACs) within this network
+    private int lastPortId = 1;
+
+    /***
+     * @param configurations settings of this run
+     * @param bridges number of bridges, each of them has to check in every phase
+     * @param metrics runtime metrics of all elements
+     * @param log event log of all elements
+     */
+    Simulation(Configurations configurations, int bridges, Metrics metrics, EventLog log) {
+        this.configurations = configurations;
+        this.metrics = metrics;
+        this.convergence = new Convergence(bridges, metrics);
+        this.log = log;
+        this.random = new Random(configurations.seedNetwork);
+    }
+
+    /***
+     * Simulation without event log and metrics
+     * @param configurations settings of this run
+     * @param bridges number of bridges, each of them has to check in every phase
+     */
+    Simulation(Configurations configurations, int bridges) {
+        this(configurations, bridges, new Metrics(), EventLog.OFF);
+    }
+
+    /***
+     * @return new unique port id
+     */
+    int nextPortId() {
+        return lastPortId++;
+    }
+
+    /***
+     * Keeps port ids created after loading a saved network unique
+     * @param next smallest port id not used by the loaded network
+     */
+    void reservePortIds(int next) {
+        lastPortId = Math.max(lastPortId, next);
+    }
+
+    /***
+     * @return start offset in milliseconds within a single period
+     */
+    int startDelay() {
+        return random.nextInt(Element.PERIOD);
+    }
+}
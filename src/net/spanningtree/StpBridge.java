@@ -0,0 +1,585 @@
+package net.spanningtree;
+
+import java.util.Arrays;
+
+/***
+ * Classic spanning tree bridge. Root advertisement, root port election and designated
+ * port election run as global phases, each starting once the network is quiet. After
+ * a topology change only the bridges whose path to root changes join the new epoch.
+ */
+class StpBridge extends Bridge {
+    private States state = States.ROOT_ADVERTISE;
+    private int rootId = id;
+    private int costToRoot = Integer.MAX_VALUE;
+    // local port numbers
+    private int rootPort = NO_PORT;
+    // designated bridge id and its port id (MAC) on the LAN segment of the root port,
+    // equal costs to root are broken by the lower of them like RSTP does
+    private int designatedBridge = Integer.MAX_VALUE;
+    private int designatedPortId = Integer.MAX_VALUE;
+    private boolean isRoot = true;
+    private long time = 0;
+    // per local port, ordinal of PortStatus or UNDECIDED
+    private byte[] portStates = new byte[0];
+    // per local port, cost to root advertised on that port
+    private int[] portCostToRoot = new int[0];
+    private static final byte UNDECIDED = -1;
+    // reconvergence after topology changes, last epoch this bridge joined and its
+    // last phase this bridge checked in to
+    private int joinedEpoch = 0;
+    private Convergence.Phase checkedIn;
+    // lost path to root in this epoch, offers itself as root until it hears better
+    private boolean detached = false;
+    // root port moved in this epoch, all ports need a new DP election
+    private boolean allPortsChanged = false;
+    // some port waits for the end of its DP election
+    private boolean undecided = false;
+    // per local port, epoch it was last marked changed and last reset for DP election
+    private int[] changedIn;
+    private int[] electedIn;
+    // frames handled per tick
+    private final int budget;
+    // per ordinal of their mode, frames polled while waiting for another mode, kept
+    // for the phase they belong to, allocated on the first one
+    private Inbox[] deferred;
+    private int deferredCount = 0;
+    // local port of the frame last taken by next() or nextAny()
+    private int polledPort;
+
+    StpBridge(int id, Simulation simulation) {
+        super(id, simulation);
+        final int budget = simulation.configurations.budget;
+        this.budget = budget == 0 ? Integer.MAX_VALUE : budget;
+    }
+
+    @Override
+    void growPorts(int capacity) {
+        final int length = portStates.length;
+        portStates = Arrays.copyOf(portStates, capacity);
+        Arrays.fill(portStates, length, capacity, UNDECIDED);
+        portCostToRoot = Arrays.copyOf(portCostToRoot, capacity);
+    }
+
+    /***
+     * @param port local port number
+     * @return state of port or null if not decided yet
+     */
+    @Override
+    PortStatus getPortStatus(int port) {
+        final byte status = portStates[port];
+        return status == UNDECIDED ? null : PortStatus.values()[status];
+    }
+
+    /***
+     * @param port local port number
+     * @return true if port forwards data frames
+     */
+    @Override
+    boolean isForwarding(int port) {
+        final byte status = portStates[port];
+        return status == PortStatus.RP.ordinal() || status == PortStatus.DP.ordinal();
+    }
+
+    @Override
+    int getRootId() {
+        return rootId;
+    }
+
+    @Override
+    int getCostToRoot() {
+        return costToRoot;
+    }
+
+    @Override
+    void step() {
+        time++;
+
+        BridgeFrame frame;
+        int handled;
+        //simple sequential state machine, phases advance once the network is quiet
+        switch (state) {
+            case ROOT_ADVERTISE:
+                // for every neighbor advertise yourself as root with your own root id
+                broadcast(new BridgeFrame(this, rootId, States.ROOT_ADVERTISE), -1);
+                if (log.enabled)
+                    record(EventLog.ADVERTISE_ROOT, 0, 0, frameQueue.size());
+
+                // switch ino listen state
+                state = States.ROOT_LISTEN;
+                convergence.done();
+                break;
+            case ROOT_LISTEN:
+                for (handled = 0; handled < budget && (frame = next(States.ROOT_ADVERTISE)) != null; handled++) {
+                    // change your root id if you received root id less than yours
+                    if (frame.getMessage() < rootId) {
+
+                        rootId = frame.getMessage();
+                        rootPort = polledPort;
+                        isRoot = false;
+                        if (log.enabled)
+                            record(EventLog.ROOT_CHANGED, 0, portIds[rootPort], frameQueue.size());
+                        if (metrics.enabled)
+                            metrics.rootChanged();
+                        // the best root of this tick is advertised once on the next one
+                        if (state != States.ROOT_ADVERTISE) {
+                            state = States.ROOT_ADVERTISE;
+                            convergence.busy();
+                        }
+                    }
+                    convergence.consumed();
+                }
+
+                if (convergence.reached(Convergence.Phase.RP)) {
+                    // root advertises cost once, all ports of root must remain dp
+                    if (isRoot) {
+                        costToRoot = 0;
+                        advertise(NO_PORT);
+                        // make all ports of root DP
+                        Arrays.fill(portStates, 0, portCount, (byte) PortStatus.DP.ordinal());
+                    }
+                    state = States.RP_ELECTION;
+                    convergence.done();
+                }
+
+                break;
+
+            case RP_ELECTION:
+                boolean improved = false;
+                for (handled = 0; handled < budget && (frame = next(States.RP_ELECTION)) != null; handled++) {
+                    // root just drops costs flooded back to it
+                    if (!isRoot && frame.getCost() < costToRoot) {
+                        costToRoot = frame.getCost();
+                        setRootPort(polledPort, frame);
+
+                        if (log.enabled)
+                            record(EventLog.COST_CHANGED, 0, portIds[rootPort], 0);
+                        improved = true;
+
+                    } else if (!isRoot && frame.getCost() == costToRoot &&
+                            closerDesignated(frame)) {
+                        // same cost through a lower designated bridge, nothing changes downstream
+                        setRootPort(polledPort, frame);
+                    }
+                }
+                // only the best cost of the tick is passed on, nobody behind the final
+                // root port needs it, frames are released after what they caused is sent
+                if (improved)
+                    advertise(rootPort);
+                if (handled > 0)
+                    convergence.consumed(handled);
+
+                if (convergence.reached(Convergence.Phase.DP)) {
+                    // root port is final only after the cheapest path is known
+                    if (!isRoot)
+                        portStates[rootPort] = (byte) PortStatus.RP.ordinal();
+                    state = States.DP_ELECTION;
+                }
+
+                break;
+
+            case DP_ELECTION:
+                // port to "cost to root", bridge id breaks ties between equal costs
+                broadcast(new BridgeFrame(this, costToRoot, States.DP_ELECTION, id), rootPort);
+                for (int port = 0; port < portCount; port++) {
+                    if (port == rootPort)
+                        continue;
+
+                    if (log.enabled)
+                        record(EventLog.ADVERTISE_DP, 0, portIds[port], 0);
+
+                    portCostToRoot[port] = costToRoot;
+                }
+
+                state = States.DP_LISTEN;
+                convergence.done();
+                break;
+
+            case DP_LISTEN:
+                for (handled = 0; handled < budget && (frame = next(States.DP_ELECTION)) != null; handled++) {
+                    final int receivedPort = polledPort;
+                    final int newCost = frame.getMessage();
+                    final int tieBreaker = frame.getTieBreaker();
+
+                    if (log.enabled)
+                        record(EventLog.DP_RECEIVED, 0, portIds[receivedPort], newCost);
+
+                    // root port never gets blocked, equal costs are broken by lower bridge id
+                    if (receivedPort != rootPort) {
+                        final int myCost = portCostToRoot[receivedPort];
+                        if (newCost < myCost || (newCost == myCost && tieBreaker < id)) {
+                            portStates[receivedPort] = (byte) PortStatus.BLOCKED.ordinal();
+                        }
+                    }
+                    convergence.consumed();
+                }
+
+                if (convergence.reached(Convergence.Phase.DONE)) {
+                    // if we didn't hear from a lan segment it means we are the
+                    // only bridge connecting him to rest of network
+                    for (int port = 0; port < portCount; port++) {
+                        if (portStates[port] == UNDECIDED)
+                            portStates[port] = (byte) PortStatus.DP.ordinal();
+                    }
+
+                    // stay around for topology changes still to come
+                    state = convergence.finished() ? States.SHUTDOWN : States.STABLE;
+                }
+                break;
+
+            case STABLE:
+                for (handled = 0; handled < budget && (frame = nextAny()) != null; handled++) {
+                    final int receivedPort = polledPort;
+                    switch (frame.getMode()) {
+                        case TOPOLOGY_CHANGE:
+                            topologyChanged(receivedPort, frame.getMessage() == 1);
+                            break;
+                        case RP_ELECTION:
+                            offered(receivedPort, frame);
+                            break;
+                        case DP_ELECTION:
+                            designatedOffered(receivedPort, frame);
+                            break;
+                    }
+                    convergence.consumed();
+                }
+
+                if (joinedEpoch == convergence.getEpoch())
+                    checkIn();
+
+                if (convergence.reached(Convergence.Phase.DONE)) {
+                    if (undecided) {
+                        for (int port = 0; port < portCount; port++) {
+                            if (portStates[port] == UNDECIDED)
+                                portStates[port] = (byte) PortStatus.DP.ordinal();
+                        }
+                        undecided = false;
+                    }
+                    if (convergence.finished())
+                        state = States.SHUTDOWN;
+                }
+                break;
+
+            case SHUTDOWN:
+                if (log.enabled) {
+                    for (int port = 0; port < portCount; port++) {
+                        record(EventLog.PORT_STATE, portStates[port], portIds[port], 0);
+                    }
+                }
+                stop();
+                convergence.bridgeStopped();
+                break;
+
+            default:
+                throw new RuntimeException("Unknown bridge state " + state);
+        }
+    }
+
+    /***
+     * Takes the next frame of the mode the current phase listens to, first from the
+     * ones put aside for it. Frames of other modes met in the inbox on the way are put
+     * aside for their own phase instead of blocking everything behind them
+     * @param mode mode to take
+     * @return frame or null, its port is in polledPort
+     */
+    private BridgeFrame next(States mode) {
+        BridgeFrame frame;
+        if (deferredCount > 0 && (frame = takeDeferred(deferred[mode.ordinal()])) != null)
+            return frame;
+        while ((frame = frameQueue.poll()) != null) {
+            polledPort = frameQueue.polledPort();
+            if (frame.getMode() == mode)
+                return frame;
+            if (deferred == null)
+                deferred = new Inbox[States.values().length];
+            final int ordinal = frame.getMode().ordinal();
+            if (deferred[ordinal] == null)
+                deferred[ordinal] = new Inbox();
+            deferred[ordinal].offer(frame, polledPort);
+            deferredCount++;
+        }
+        return null;
+    }
+
+    /***
+     * Takes the next frame of any mode, the ones put aside first
+     * @return frame or null, its port is in polledPort
+     */
+    private BridgeFrame nextAny() {
+        if (deferredCount > 0) {
+            for (Inbox inbox : deferred) {
+                final BridgeFrame frame = takeDeferred(inbox);
+                if (frame != null)
+                    return frame;
+            }
+        }
+        final BridgeFrame frame = frameQueue.poll();
+        if (frame != null)
+            polledPort = frameQueue.polledPort();
+        return frame;
+    }
+
+    private BridgeFrame takeDeferred(Inbox inbox) {
+        if (inbox == null)
+            return null;
+        final BridgeFrame frame = inbox.poll();
+        if (frame != null) {
+            polledPort = inbox.polledPort();
+            deferredCount--;
+        }
+        return frame;
+    }
+
+    /***
+     * Takes down the link of a port, called by the engine between ticks
+     * @param port local port number
+     */
+    @Override
+    void linkDown(int port) {
+        if (!isPortUp(port))
+            return;
+        final boolean designated = portStates[port] == PortStatus.DP.ordinal();
+        portStates[port] = (byte) PortStatus.DISABLED.ordinal();
+        setLinkUp(port, false);
+        // nothing changes for the others on a LAN segment this bridge was not designated for
+        if (designated)
+            neighbors[port].linkChanged(remotePorts[port], true);
+        if (port == rootPort)
+            detach();
+    }
+
+    /***
+     * Restores the link of a port, called by the engine between ticks
+     * @param port local port number
+     */
+    @Override
+    void linkUp(int port) {
+        if (isPortUp(port))
+            return;
+        setLinkUp(port, true);
+        portStates[port] = UNDECIDED;
+        join();
+        changedIn[port] = joinedEpoch;
+        neighbors[port].linkChanged(remotePorts[port], false);
+    }
+
+    /***
+     * Takes down all links and stops, called by the engine between ticks
+     */
+    @Override
+    void kill() {
+        for (int port = 0; port < portCount; port++) {
+            if (isPortUp(port)) {
+                final boolean designated = portStates[port] == PortStatus.DP.ordinal();
+                portStates[port] = (byte) PortStatus.DISABLED.ordinal();
+                setLinkUp(port, false);
+                if (designated)
+                    neighbors[port].linkChanged(remotePorts[port], true);
+            }
+        }
+        // changes applied together with this one may have sent frames here
+        discardFrames();
+        stop();
+        convergence.bridgeStopped();
+    }
+
+    /***
+     * Takes part in the current epoch, has to check in to all of its later phases
+     */
+    private void join() {
+        final int epoch = convergence.getEpoch();
+        if (joinedEpoch == epoch)
+            return;
+        allocateEpochTables();
+        joinedEpoch = epoch;
+        checkedIn = convergence.getPhase();
+        detached = false;
+        allPortsChanged = false;
+        convergence.join();
+    }
+
+    /***
+     * Per port epoch tables are only needed once the topology changes
+     */
+    private void allocateEpochTables() {
+        if (changedIn == null) {
+            changedIn = new int[portCount];
+            electedIn = new int[portCount];
+        }
+    }
+
+    /***
+     * Path to root is lost, forgets root and tells bridges behind its designated ports
+     * to do the same, bridges behind blocked ports will offer their paths instead
+     */
+    private void detach() {
+        join();
+        final int lostPort = rootPort;
+        detached = true;
+        allPortsChanged = true;
+        rootId = id;
+        costToRoot = 0;
+        rootPort = NO_PORT;
+        designatedBridge = Integer.MAX_VALUE;
+        designatedPortId = Integer.MAX_VALUE;
+        isRoot = true;
+        final BridgeFrame downstream = new BridgeFrame(this, 1, States.TOPOLOGY_CHANGE);
+        final BridgeFrame peers = new BridgeFrame(this, 0, States.TOPOLOGY_CHANGE);
+        for (int port = 0; port < portCount; port++) {
+            if (port != lostPort)
+                send(port, portStates[port] == PortStatus.DP.ordinal() ? downstream : peers);
+        }
+    }
+
+    /***
+     * Topology change frame, sent in the first phase of an epoch
+     * @param port local port frame arrived at
+     * @param designatedLost designated bridge of the LAN segment lost its path to root
+     */
+    private void topologyChanged(int port, boolean designatedLost) {
+        if (designatedLost && port == rootPort) {
+            detach();
+        } else {
+            join();
+            changedIn[port] = joinedEpoch;
+        }
+    }
+
+    /***
+     * Root advertisement, sent in the second phase of an epoch. A lower root id or a
+     * lower cost to the same root is adopted and passed on, anything else is dropped
+     * so only bridges whose path changes take part.
+     * @param port local port frame arrived at
+     * @param frame received advertisement
+     */
+    private void offered(int port, BridgeFrame frame) {
+        final int offeredRoot = frame.getMessage();
+        if (offeredRoot > rootId || (offeredRoot == rootId && frame.getCost() > costToRoot))
+            return;
+        if (offeredRoot == rootId && frame.getCost() == costToRoot) {
+            if (!closerDesignated(frame))
+                return;
+            // same cost through a lower designated bridge, only the two ports change
+            join();
+            if (rootPort != NO_PORT)
+                changedIn[rootPort] = joinedEpoch;
+            setRootPort(port, frame);
+            return;
+        }
+        join();
+        allPortsChanged = true;
+        isRoot = false;
+        setRootPort(port, frame);
+        costToRoot = frame.getCost();
+        if (offeredRoot != rootId) {
+            rootId = offeredRoot;
+            if (log.enabled)
+                record(EventLog.ROOT_CHANGED, 0, portIds[rootPort], frameQueue.size());
+            if (metrics.enabled)
+                metrics.rootChanged();
+        }
+        if (log.enabled)
+            record(EventLog.COST_CHANGED, 0, portIds[rootPort], 0);
+        advertise(port);
+    }
+
+    /***
+     * DP advertisement, sent in the last phase of an epoch. The first one on a port
+     * starts a new election on it, bridges which did not join advertise back so
+     * everybody on the LAN segment hears everybody else.
+     * @param port local port frame arrived at
+     * @param frame received advertisement
+     */
+    private void designatedOffered(int port, BridgeFrame frame) {
+        if (log.enabled)
+            record(EventLog.DP_RECEIVED, 0, portIds[port], frame.getMessage());
+        // root port never gets blocked
+        if (port == rootPort)
+            return;
+        elect(port);
+        final int myCost = portCostToRoot[port];
+        final int newCost = frame.getMessage();
+        if (newCost < myCost || (newCost == myCost && frame.getTieBreaker() < id))
+            portStates[port] = (byte) PortStatus.BLOCKED.ordinal();
+    }
+
+    /***
+     * Starts DP election on a port once per epoch by advertising own cost on it
+     * @param port local port number
+     */
+    private void elect(int port) {
+        allocateEpochTables();
+        final int epoch = convergence.getEpoch();
+        if (electedIn[port] == epoch || !isPortUp(port))
+            return;
+        electedIn[port] = epoch;
+        portStates[port] = UNDECIDED;
+        undecided = true;
+        portCostToRoot[port] = costToRoot;
+        if (log.enabled)
+            record(EventLog.ADVERTISE_DP, 0, portIds[port], 0);
+        send(port, new BridgeFrame(this, costToRoot, States.DP_ELECTION, id));
+    }
+
+    /***
+     * @param port new root port
+     * @param frame advertisement the cost to root was heard from on port
+     */
+    private void setRootPort(int port, BridgeFrame frame) {
+        rootPort = port;
+        designatedBridge = frame.getSender().id;
+        designatedPortId = frame.getTieBreaker();
+    }
+
+    /***
+     * @param frame advertisement of the same cost to root as the current one
+     * @return true if its sender offers a lower bridge id or port id than the
+     * designated bridge of the root port
+     */
+    private boolean closerDesignated(BridgeFrame frame) {
+        final int designated = frame.getSender().id;
+        if (designated != designatedBridge)
+            return designated < designatedBridge;
+        return frame.getTieBreaker() < designatedPortId;
+    }
+
+    /***
+     * Advertises root and cost to root on all ports but one, every frame carries the
+     * id of the port it leaves through
+     * @param exceptPort local port to skip or NO_PORT for none
+     */
+    private void advertise(int exceptPort) {
+        for (int port = 0; port < portCount; port++) {
+            if (port != exceptPort)
+                send(port, BridgeFrame.advertise(this, rootId, costToRoot, portIds[port]));
+        }
+    }
+
+    /***
+     * Work of a participating bridge at the start of every phase after it joined
+     */
+    private void checkIn() {
+        if (checkedIn == Convergence.Phase.ROOT && convergence.reached(Convergence.Phase.RP)) {
+            // detached bridges compete for root, others offer their path where something changed
+            for (int port = 0; port < portCount; port++) {
+                if (detached || changedIn[port] == joinedEpoch)
+                    send(port, BridgeFrame.advertise(this, rootId, costToRoot, portIds[port]));
+            }
+            checkedIn = Convergence.Phase.RP;
+            convergence.done();
+        } else if (checkedIn == Convergence.Phase.RP && convergence.reached(Convergence.Phase.DP)) {
+            if (rootPort != NO_PORT)
+                portStates[rootPort] = (byte) PortStatus.RP.ordinal();
+            for (int port = 0; port < portCount; port++) {
+                if (port != rootPort && (allPortsChanged || changedIn[port] == joinedEpoch))
+                    elect(port);
+            }
+            checkedIn = Convergence.Phase.DP;
+            convergence.done();
+        }
+    }
+
+    private void record(byte kind, int status, int port, int value) {
+        log.record(kind, this, time, state.ordinal(), status, rootId, costToRoot, port, value);
+    }
+
+}
@@ -0,0 +1,239 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/***
+ * Parameter sweep, runs every combination of a spec file as an independent
+ * simulation inside this JVM. Each run has its own Simulation context and a single
+ * threaded virtual time engine, runs are spread over a fixed pool of threads so
+ * throughput grows with the number of cores. One CSV row per run is written in
+ * spec order: convergence time, frames and the largest bridge inbox, then a
+ * summary of the resulting tree with a fingerprint which is equal for equal trees
+ * and whether it matches the reference solution of Verifier.
+ * spec: one "key = values" line per parameter, values comma separated, integer
+ * ranges as from..to, # starts a comment. The first key varies slowest.
+ */
+class Sweep {
+    private static final List<String> KEYS = Arrays.asList("nodes", "density", "seed", "topology", "adaptor",
+            "max-segment", "protocol", "engine", "coalesce", "budget");
+    private static final String HEADER = "nodes,density,seed,topology,adaptor,max_segment,protocol,engine,coalesce," +
+            "budget,bridges,lan_segments,converged,convergence_ms,frames,backlog,wall_ms,roots,max_cost,total_cost," +
+            "root_ports,designated_ports,blocked_ports,tree,verified";
+
+    private final Configurations base;
+    // values of every key in spec order
+    private final Map<String, List<String>> params = new LinkedHashMap<>();
+
+    /***
+     * @param base command line settings, defaults of every run
+     * @throws IOException if spec file can't be read
+     * @throws IllegalArgumentException if spec is malformed
+     */
+    Sweep(Configurations base) throws IOException {
+        this.base = base;
+        for (String line : Files.readAllLines(Paths.get(base.sweep), StandardCharsets.UTF_8)) {
+            final int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            if (line.trim().isEmpty())
+                continue;
+            final String[] fields = line.split("=", 2);
+            final String key = fields[0].trim();
+            if (fields.length != 2 || !KEYS.contains(key))
+                throw new IllegalArgumentException("unknown parameter " + line.trim());
+            final List<String> values = new ArrayList<>();
+            for (String value : fields[1].split(",")) {
+                values.addAll(expand(value.trim()));
+            }
+            for (String value : values) {
+                validate(key, value);
+            }
+            params.put(key, values);
+        }
+        if (!params.containsKey("nodes") || !params.containsKey("density"))
+            throw new IllegalArgumentException("nodes and density are mandatory");
+    }
+
+    /***
+     * @return single value or all integers of a from..to range
+     */
+    private static List<String> expand(String value) {
+        final int dots = value.indexOf("..");
+        if (dots < 0)
+            return Collections.singletonList(value);
+        final int from = Integer.parseInt(value.substring(0, dots).trim());
+        final int to = Integer.parseInt(value.substring(dots + 2).trim());
+        final List<String> values = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            values.add(Integer.toString(i));
+        }
+        return values;
+    }
+
+    private static void validate(String key, String value) {
+        final boolean valid;
+        switch (key) {
+            case "nodes":
+                valid = Integer.parseInt(value) >= 3;
+                break;
+            case "density":
+                valid = Double.parseDouble(value) >= 0;
+                break;
+            case "seed":
+            case "max-segment":
+                Integer.parseInt(value);
+                valid = true;
+                break;
+            case "topology":
+                valid = Topology.create(value) != null;
+                break;
+            case "adaptor":
+                valid = SegmentAdaptor.create(value, 0) != null;
+                break;
+            case "protocol":
+                valid = value.equals("stp") || value.equals("rstp");
+                break;
+            case "coalesce":
+                valid = value.equals("on") || value.equals("off");
+                break;
+            case "budget":
+                valid = Integer.parseInt(value) >= 0;
+                break;
+            default:
+                // wall clock engines would measure each other
+                valid = value.equals("event") || value.equals("lockstep");
+                break;
+        }
+        if (!valid)
+            throw new IllegalArgumentException("invalid " + key + " " + value);
+    }
+
+    /***
+     * @return every combination of parameter values, first key varying slowest
+     */
+    private List<Map<String, String>> combinations() {
+        List<Map<String, String>> combinations = Collections.singletonList(new LinkedHashMap<>());
+        for (Map.Entry<String, List<String>> param : params.entrySet()) {
+            final List<Map<String, String>> next = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                for (String value : param.getValue()) {
+                    final Map<String, String> extended = new LinkedHashMap<>(combination);
+                    extended.put(param.getKey(), value);
+                    next.add(extended);
+                }
+            }
+            combinations = next;
+        }
+        return combinations;
+    }
+
+    /***
+     * Runs all combinations and writes the CSV file
+     */
+    void run() throws IOException {
+        final List<Map<String, String>> combinations = combinations();
+        System.out.println("sweep: " + combinations.size() + " runs on " + base.threads + " threads");
+        final long started = System.nanoTime();
+        final ExecutorService pool = Executors.newFixedThreadPool(base.threads);
+        try (Writer out = Files.newBufferedWriter(Paths.get(base.sweepOutput), StandardCharsets.UTF_8)) {
+            final List<Future<String>> rows = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                rows.add(pool.submit(() -> run(combination)));
+            }
+            out.write(HEADER + "\n");
+            for (Future<String> row : rows) {
+                out.write(row.get() + "\n");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("sweep run failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        final long elapsed = (System.nanoTime() - started) / 1000000;
+        System.out.println("sweep: " + combinations.size() + " runs in " + elapsed + " ms, " +
+                combinations.size() * 1000 / Math.max(1, elapsed) + " runs/s, written to " + base.sweepOutput);
+    }
+
+    /***
+     * Runs a single combination in its own simulation context
+     * @param combination value of every swept key
+     * @return CSV row
+     */
+    private String run(Map<String, String> combination) {
+        final Configurations configurations = base.copy();
+        configurations.logLevel = EventLog.Level.OFF;
+        configurations.metrics = false;
+        if (!configurations.engine.equals("lockstep"))
+            configurations.engine = "event";
+        final int nodes = Integer.parseInt(combination.get("nodes"));
+        final double density = Double.parseDouble(combination.get("density"));
+        for (Map.Entry<String, String> param : combination.entrySet()) {
+            final String value = param.getValue();
+            switch (param.getKey()) {
+                case "seed":
+                    configurations.seedNetwork = Integer.parseInt(value);
+                    break;
+                case "topology":
+                    configurations.topology = value;
+                    break;
+                case "adaptor":
+                    configurations.adaptor = value;
+                    break;
+                case "max-segment":
+                    configurations.maxSegment = Integer.parseInt(value);
+                    break;
+                case "protocol":
+                    configurations.protocol = value;
+                    break;
+                case "engine":
+                    configurations.engine = value;
+                    break;
+                case "coalesce":
+                    configurations.coalesce = value.equals("on");
+                    break;
+                case "budget":
+                    configurations.budget = Integer.parseInt(value);
+                    break;
+            }
+        }
+
+        final UndirectedGraph<Integer, DefaultEdge> g = Main.createConceptGraph(configurations, nodes, density);
+        final Simulation simulation = new Simulation(configurations, g.vertexSet().size());
+        final HashMap<Integer, Bridge> bridges = new HashMap<>();
+        final HashSet<LanSegment> lanSegments = new HashSet<>();
+        Main.networkAdaptor(g, bridges, lanSegments, simulation);
+
+        // the sweep itself keeps all cores busy
+        final Engine engine = Engine.create(configurations.engine, 1);
+        engine.quiet = true;
+        final long started = System.nanoTime();
+        engine.run(bridges.values(), lanSegments, simulation.convergence);
+        final long wall = (System.nanoTime() - started) / 1000000;
+
+        final Convergence convergence = simulation.convergence;
+        final boolean converged = convergence.reached(Convergence.Phase.DONE);
+        // largest inbox of any bridge
+        final int backlog = bridges.values().stream().mapToInt(b -> b.frameQueue.getHighWater()).max().orElse(0);
+        return nodes + "," + density + "," + configurations.seedNetwork + "," + configurations.topology + "," +
+                configurations.adaptor + "," + configurations.maxSegment + "," + configurations.protocol + "," +
+                configurations.engine + "," + (configurations.coalesce ? "on" : "off") + "," + configurations.budget +
+                "," + bridges.size() + "," + lanSegments.size() + "," + converged + "," +
+                (converged ? convergence.getDoneAt() : "") + "," + convergence.getFrames() + "," + backlog + "," +
+                wall + "," +
+                TreeSummary.of(bridges.values()).toCsv() + "," + new Verifier(bridges.values(), lanSegments).passed();
+    }
+}
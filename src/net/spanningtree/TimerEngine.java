@@ -0,0 +1,29 @@
+package net.spanningtree;
+
+import java.util.Collection;
+
+/***
+ * Runs LAN segments and Bridges in distributed mode using one timer per element
+ */
+class TimerEngine extends Engine {
+
+    @Override
+    void run(Collection<Bridge> bridges, Collection<LanSegment> lanSegments,
+             Convergence convergence) {
+        long started = System.nanoTime();
+        convergence.start();
+        startOrder(lanSegments).forEach(Element::start);
+        startOrder(bridges).forEach(Element::start);
+        // wait until all bridges all done.
+        try {
+            convergence.awaitStopped();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // bridges still running after a failure are stopped too
+            lanSegments.stream().forEach(p -> p.stop());
+            bridges.stream().forEach(p -> p.stop());
+        }
+        printUsage(started);
+    }
+}
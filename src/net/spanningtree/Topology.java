@@ -0,0 +1,54 @@
+package net.spanningtree;
+
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleGraph;
+
+/***
+ * Concept graph generator, every generator is deterministic for a given seed
+ */
+abstract class Topology {
+
+    /***
+     * Generates concept graph
+     * @param nodes desired number of bridges, structured topologies round it to their shape
+     * @param density desired density between 0 and 1, ignored by structured topologies
+     * @param seed random seed
+     * @return concept graph
+     */
+    abstract UndirectedGraph<Integer, DefaultEdge> generate(int nodes, double density, long seed);
+
+    /***
+     * Creates generator by its command line name
+     * @param name generator name
+     * @return generator or null if name is unknown
+     */
+    static Topology create(String name) {
+        switch (name) {
+            case "legacy":
+                return new LegacyTopology();
+            case "gnp":
+                return new GnpTopology();
+            case "scale-free":
+                return new ScaleFreeTopology();
+            case "fat-tree":
+                return new FatTreeTopology();
+            case "ring-of-rings":
+                return new RingOfRingsTopology();
+            default:
+                return null;
+        }
+    }
+
+    /***
+     * @param nodes number of vertices
+     * @return graph with vertices 0 to nodes - 1 and no edges
+     */
+    static UndirectedGraph<Integer, DefaultEdge> emptyGraph(int nodes) {
+        final UndirectedGraph<Integer, DefaultEdge> g = new SimpleGraph<>(DefaultEdge.class);
+        for (int i = 0; i < nodes; i++) {
+            g.addVertex(i);
+        }
+        return g;
+    }
+}
@@ -0,0 +1,83 @@
+package net.spanningtree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/***
+ * Summary of the tree a run ended up with: roots, largest and total cost to root,
+ * root, designated and blocked ports, then a fingerprint of every bridge's root,
+ * cost and port states which is equal for equal trees so runs on different engines,
+ * protocols or processes can be compared. Bridges must be added in ascending id
+ * order, each followed by its ports.
+ */
+class TreeSummary {
+    private int roots = 0;
+    private int maxCost = 0;
+    private long totalCost = 0;
+    private final int[] ports = new int[Bridge.PortStatus.values().length];
+    private long fingerprint = 1125899906842597L;
+
+    /***
+     * @param bridges bridges of a run, in any order
+     * @return summary of their final states
+     */
+    static TreeSummary of(Collection<Bridge> bridges) {
+        final List<Bridge> sorted = new ArrayList<>(bridges);
+        sorted.sort(Comparator.comparingInt(b -> b.id));
+        final TreeSummary summary = new TreeSummary();
+        for (Bridge bridge : sorted) {
+            summary.addBridge(bridge.id, bridge.getRootId(), bridge.getCostToRoot());
+            for (int port = 0; port < bridge.portCount; port++) {
+                final Bridge.PortStatus status = bridge.getPortStatus(port);
+                summary.addPort(status == null ? -1 : status.ordinal());
+            }
+        }
+        return summary;
+    }
+
+    /***
+     * @param id bridge id
+     * @param rootId root id known to bridge
+     * @param cost cost to root of bridge
+     */
+    void addBridge(int id, int rootId, int cost) {
+        if (rootId == id)
+            roots++;
+        maxCost = Math.max(maxCost, cost);
+        totalCost += cost;
+        fingerprint = 31 * (31 * (31 * fingerprint + id) + rootId) + cost;
+    }
+
+    /***
+     * @param status ordinal of the port status of the last bridge added, -1 if undecided
+     */
+    void addPort(int status) {
+        if (status >= 0)
+            ports[status]++;
+        fingerprint = 31 * fingerprint + status;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /***
+     * @return roots, max cost, total cost, root, designated and blocked ports and
+     * fingerprint as CSV columns
+     */
+    String toCsv() {
+        return roots + "," + maxCost + "," + totalCost + "," + ports[Bridge.PortStatus.RP.ordinal()] + "," +
+                ports[Bridge.PortStatus.DP.ordinal()] + "," + ports[Bridge.PortStatus.BLOCKED.ordinal()] + "," +
+                Long.toHexString(fingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return "tree: " + roots + " roots, max cost " + maxCost + ", total cost " + totalCost + ", " +
+                ports[Bridge.PortStatus.RP.ordinal()] + " root ports, " + ports[Bridge.PortStatus.DP.ordinal()] +
+                " designated ports, " + ports[Bridge.PortStatus.BLOCKED.ordinal()] + " blocked ports, fingerprint " +
+                Long.toHexString(fingerprint);
+    }
+}
@@ -0,0 +1,315 @@
+package net.spanningtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/***
+ * Reference solver and verifier of the final port states. Computes the expected
+ * spanning tree centrally in O(V+E) with a BFS from the lowest bridge id of every
+ * connected component, then compares every bridge's root, cost to root and port
+ * states with it and checks the forwarding ports for loops and partitions.
+ * Tie-breaking is the one of the protocols: the designated bridge of a LAN segment
+ * has the lowest cost to root, then bridge id, then port id, the root port leads to
+ * the LAN segment one hop closer to root whose designated bridge has the lowest
+ * bridge id, then port id. Ports whose link is down must be disabled, bridges with
+ * all links down were removed and are skipped.
+ * All tables are flat arrays indexed by bridge id and LAN segment id, networks
+ * built here number both densely, and only the first few disagreements are kept.
+ */
+class Verifier {
+    // disagreements kept for the report, the rest is only counted
+    private static final int EXAMPLES = 10;
+    private static final int UNREACHED = -1;
+
+    // element of every id, null for ids not in use
+    private final Bridge[] bridges;
+    private final LanSegment[] lanSegments;
+    // per bridge, expected cost to root and root id
+    private final int[] cost;
+    private final int[] root;
+    // per LAN segment, expected designated bridge id and its port id (MAC)
+    private final int[] designated;
+    private final int[] designatedPortId;
+
+    private int bridgeCount = 0;
+    private int lanSegmentCount = 0;
+    private int components = 0;
+    private long disagreements = 0;
+    private long loops = 0;
+    private long partitions = 0;
+    private final List<String> examples = new ArrayList<>();
+    private final long elapsed;
+
+    /***
+     * Solves the network and verifies the port states bridges ended up with
+     * @param bridges bridges of the network
+     * @param lanSegments lan segments of the network
+     */
+    Verifier(Collection<Bridge> bridges, Collection<LanSegment> lanSegments) {
+        final long started = System.nanoTime();
+        int maxBridge = -1;
+        for (Bridge bridge : bridges) {
+            maxBridge = Math.max(maxBridge, bridge.id);
+        }
+        int maxSegment = -1;
+        for (LanSegment lanSegment : lanSegments) {
+            maxSegment = Math.max(maxSegment, lanSegment.id);
+        }
+        this.bridges = new Bridge[maxBridge + 1];
+        this.lanSegments = new LanSegment[maxSegment + 1];
+        cost = new int[maxBridge + 1];
+        root = new int[maxBridge + 1];
+        designated = new int[maxSegment + 1];
+        designatedPortId = new int[maxSegment + 1];
+        for (Bridge bridge : bridges) {
+            this.bridges[bridge.id] = bridge;
+        }
+        for (LanSegment lanSegment : lanSegments) {
+            this.lanSegments[lanSegment.id] = lanSegment;
+        }
+
+        solve();
+        for (Bridge bridge : this.bridges) {
+            if (bridge != null && !removed(bridge))
+                check(bridge);
+        }
+        checkForwarding();
+        elapsed = (System.nanoTime() - started) / 1000000;
+    }
+
+    /***
+     * @return true if the port states are those of the reference solution, without
+     * loops and partitions
+     */
+    boolean passed() {
+        return disagreements == 0 && loops == 0 && partitions == 0;
+    }
+
+    long getDisagreements() {
+        return disagreements;
+    }
+
+    long getLoops() {
+        return loops;
+    }
+
+    long getPartitions() {
+        return partitions;
+    }
+
+    /***
+     * Prints totals and the first disagreements
+     */
+    void printReport() {
+        System.out.println("verify: " + bridgeCount + " bridges, " + lanSegmentCount + " LAN segments, " +
+                components + " components, " + disagreements + " disagreements, " + loops + " loops, " +
+                partitions + " partitions in " + elapsed + " ms" + (passed() ? ", passed" : ", FAILED"));
+        for (String example : examples) {
+            System.out.println("  " + example);
+        }
+        if (disagreements > examples.size())
+            System.out.println("  ... " + (disagreements - examples.size()) + " more");
+    }
+
+    /***
+     * BFS from the lowest bridge id of every component, then the designated bridge
+     * of every LAN segment. Each LAN segment is expanded once, by the first bridge
+     * reaching it, which is one of the closest to root.
+     */
+    private void solve() {
+        Arrays.fill(cost, UNREACHED);
+        // marks LAN segments already expanded until the designated bridges are known
+        Arrays.fill(designated, UNREACHED);
+        final int[] queue = new int[bridges.length];
+        // ascending ids, the first bridge of a component is its root
+        for (int start = 0; start < bridges.length; start++) {
+            if (bridges[start] == null || removed(bridges[start]))
+                continue;
+            bridgeCount++;
+            if (cost[start] != UNREACHED)
+                continue;
+            components++;
+            cost[start] = 0;
+            root[start] = start;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            while (head < tail) {
+                final Bridge bridge = bridges[queue[head++]];
+                for (int port = 0; port < bridge.portCount; port++) {
+                    final Element segment = bridge.neighbors[port];
+                    if (!bridge.isPortUp(port) || designated[segment.id] != UNREACHED)
+                        continue;
+                    designated[segment.id] = bridge.id;
+                    for (int p = 0; p < segment.portCount; p++) {
+                        final int other = segment.neighbors[p].id;
+                        if (segment.isPortUp(p) && cost[other] == UNREACHED) {
+                            cost[other] = cost[bridge.id] + 1;
+                            root[other] = start;
+                            queue[tail++] = other;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (LanSegment segment : lanSegments) {
+            if (segment == null || !hasUpPort(segment))
+                continue;
+            lanSegmentCount++;
+            int best = UNREACHED;
+            int bestPortId = Integer.MAX_VALUE;
+            for (int p = 0; p < segment.portCount; p++) {
+                if (!segment.isPortUp(p))
+                    continue;
+                final Element bridge = segment.neighbors[p];
+                final int portId = bridge.portIds[segment.remotePorts[p]];
+                if (best == UNREACHED || better(cost[bridge.id], bridge.id, portId, cost[best], best, bestPortId)) {
+                    best = bridge.id;
+                    bestPortId = portId;
+                }
+            }
+            designated[segment.id] = best;
+            designatedPortId[segment.id] = bestPortId;
+        }
+    }
+
+    /***
+     * Compares root, cost to root and every port state of a bridge with the reference
+     * @param bridge bridge to check
+     */
+    private void check(Bridge bridge) {
+        final int expectedCost = cost[bridge.id];
+        if (bridge.getRootId() != root[bridge.id]) {
+            if (disagree())
+                examples.add(bridge.getId() + " root " + bridge.getRootId() + ", expected " + root[bridge.id]);
+        } else if (bridge.getCostToRoot() != expectedCost) {
+            if (disagree())
+                examples.add(bridge.getId() + " cost to root " + bridge.getCostToRoot() + ", expected " +
+                        expectedCost);
+        }
+
+        final int rootPort = rootPort(bridge);
+        for (int port = 0; port < bridge.portCount; port++) {
+            final Element segment = bridge.neighbors[port];
+            final Bridge.PortStatus expected;
+            if (!bridge.isPortUp(port))
+                expected = Bridge.PortStatus.DISABLED;
+            else if (designated[segment.id] == bridge.id && designatedPortId[segment.id] == bridge.portIds[port])
+                expected = Bridge.PortStatus.DP;
+            else if (port == rootPort)
+                expected = Bridge.PortStatus.RP;
+            else
+                expected = Bridge.PortStatus.BLOCKED;
+            final Bridge.PortStatus status = bridge.getPortStatus(port);
+            if (status != expected && disagree())
+                examples.add(bridge.getId() + " port to " + segment.getId() + " " +
+                        (status == null ? "undecided" : status) + ", expected " + expected);
+        }
+    }
+
+    /***
+     * @param bridge bridge to solve
+     * @return expected root port or Bridge.NO_PORT for roots
+     */
+    private int rootPort(Bridge bridge) {
+        final int expectedCost = cost[bridge.id];
+        int best = Bridge.NO_PORT;
+        for (int port = 0; port < bridge.portCount; port++) {
+            if (!bridge.isPortUp(port))
+                continue;
+            final int segment = bridge.neighbors[port].id;
+            final int upstream = designated[segment];
+            if (upstream == bridge.id || cost[upstream] != expectedCost - 1)
+                continue;
+            if (best == Bridge.NO_PORT || better(0, upstream, designatedPortId[segment],
+                    0, designated[bridge.neighbors[best].id], designatedPortId[bridge.neighbors[best].id]))
+                best = port;
+        }
+        return best;
+    }
+
+    /***
+     * Union-find over the forwarding ports, a forwarding link between elements which
+     * are already connected closes a loop, every forwarding component more than there
+     * are components of the network is a partition. LAN segments follow the bridges
+     * in the table.
+     */
+    private void checkForwarding() {
+        final int[] parent = new int[bridges.length + lanSegments.length];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (Bridge bridge : bridges) {
+            if (bridge == null || removed(bridge))
+                continue;
+            for (int port = 0; port < bridge.portCount; port++) {
+                if (!bridge.isPortUp(port) || !bridge.isForwarding(port))
+                    continue;
+                final int a = find(parent, bridge.id);
+                final int b = find(parent, bridges.length + bridge.neighbors[port].id);
+                if (a == b)
+                    loops++;
+                else
+                    parent[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+        int forwardingComponents = 0;
+        for (Bridge bridge : bridges) {
+            if (bridge != null && !removed(bridge) && find(parent, bridge.id) == bridge.id)
+                forwardingComponents++;
+        }
+        for (int i = bridges.length; i < parent.length; i++) {
+            final LanSegment segment = lanSegments[i - bridges.length];
+            if (segment != null && hasUpPort(segment) && find(parent, i) == i)
+                forwardingComponents++;
+        }
+        partitions = forwardingComponents - components;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            // path halving
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /***
+     * @return true if vector a is better, that is lower, than vector b
+     */
+    private static boolean better(int costA, int bridgeA, int portA, int costB, int bridgeB, int portB) {
+        if (costA != costB)
+            return costA < costB;
+        if (bridgeA != bridgeB)
+            return bridgeA < bridgeB;
+        return portA < portB;
+    }
+
+    /***
+     * @return true for bridges whose links are all down, as left by kill
+     */
+    private static boolean removed(Element bridge) {
+        return bridge.portCount > 0 && !hasUpPort(bridge);
+    }
+
+    private static boolean hasUpPort(Element element) {
+        for (int port = 0; port < element.portCount; port++) {
+            if (element.isPortUp(port))
+                return true;
+        }
+        return false;
+    }
+
+    /***
+     * Counts a disagreement
+     * @return true if it should be kept as an example
+     */
+    private boolean disagree() {
+        disagreements++;
+        return examples.size() < EXAMPLES;
+    }
+}